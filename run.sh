@@ -0,0 +1,3 @@
+#!/bin/sh
+javac src/*.java
+java -cp src Main -source "$1"
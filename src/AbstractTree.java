@@ -1,60 +1,296 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.zip.CRC32;
 
+/**
+ * Abstract syntax tree stored as parallel primitive arrays.
+ * Nodes are addressed by their int id, children are kept in compressed rows (childOffsets/childIds)
+ * and node values are interned in a shared pool.
+ */
 public class AbstractTree {
-    public AbstractNode root;
-    public AbstractNode nodes[];
+    public static final int NONE = -1;
+
+    public final int root = 0;
+
+    private static final AbstractNodeType TYPES[] = AbstractNodeType.values();
+    private static final int CACHE_MAGIC = 0x43545341; //"ASTC"
+    private static final int CACHE_VERSION = 1;
+
+    private byte types[];
+    private int parents[];
+    private int values[];
+    private int childOffsets[];
+    private int childIds[];
+    private ValuePool valuePool;
 
     AbstractTree(ArrayList<String> lines) {
-        nodes = new AbstractNode[lines.size()];
+        Builder builder = new Builder(lines.size());
+        AbstractTreeScanner scanner = new AbstractTreeScanner();
         for (String line : lines) {
-            Matcher matcher = Pattern.compile("[0-9]+").matcher(line);
-            matcher.find();
-            int id = Integer.parseInt(matcher.group(0));
-
-            matcher = Pattern.compile("([a-z]|[A-Z])+(\\(.*\\))?").matcher(line);
-            matcher.find();
-            String nodeDecl = matcher.group(0);
-
-            matcher = Pattern.compile("^([a-z]|[A-Z])+").matcher(nodeDecl);
-            matcher.find();
-            AbstractNodeType nodeType = AbstractNodeType.valueOf(matcher.group(0));
-
-            matcher = Pattern.compile("([0-9]*| )*$").matcher(line);
-            matcher.find();
-
-            String childrenString = matcher.group(0).trim();
-            int children[] = childrenString.length() == 0? null : Arrays.asList(childrenString.split(" ")).stream().mapToInt(Integer::parseInt).toArray();
-            switch (nodeType) {
-                
-                case Call:
-                case Number:
-                case NumDecl:
-                case Proc:
-                case Var:
-		case StrDecl:
-		case BoolDecl:
-                    matcher = Pattern.compile("([0-9]|[a-z]|[A-Z]| )+").matcher(nodeDecl);
-                    matcher.find();
-                    matcher.find();
-                    String val = matcher.group(0);
-                    nodes[id] = new AbstractNode(id, val, nodeType, children, nodes);
-                    break;
-		case String:
-			matcher = Pattern.compile("\"([0-9]|[a-z]|[A-Z]| )*\"").matcher(nodeDecl.substring(nodeDecl.indexOf("(")));
-			    //~ matcher.find();
-			    matcher.find();
-			    val = matcher.group(0);
-			    nodes[id] = new AbstractNode(id, val, nodeType, children, nodes);
-			break;
-                default:
-                    nodes[id] = new AbstractNode(id, nodeType, children, nodes);
-                    break;
+            scanner.reset(line);
+            scanner.next(builder);
+        }
+        builder.build(this);
+    }
+
+    AbstractTree(CharSequence input) {
+        AbstractTreeScanner scanner = new AbstractTreeScanner(input);
+        Builder builder = new Builder(scanner.countRecords());
+        while (scanner.next(builder)) {
+            //records go straight into the builder
+        }
+        builder.build(this);
+    }
+
+    AbstractTree(Builder builder) {
+        builder.build(this);
+    }
+
+    private AbstractTree() {
+    }
+
+    /**
+     * Loads an abstract tree file by mapping it into memory and decoding the records straight from its bytes.
+     */
+    public static AbstractTree load(String fileName) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new AbstractTree(new ByteCharSequence(buffer));
+        }
+    }
+
+    /**
+     * Hash identifying the contents of a source file: its length and the CRC32 of its bytes.
+     */
+    public static long sourceHash(String fileName) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            CRC32 crc = new CRC32();
+            crc.update(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            return (channel.size() << 32) ^ crc.getValue();
+        }
+    }
+
+    /**
+     * Writes the tree in binary form: a versioned header with the source hash, the node arrays and the value pool.
+     * The file is written next to its final name and moved in place, readers never see a partial cache.
+     */
+    public void writeCache(String fileName, long sourceHash) throws IOException {
+        int size = types.length;
+        byte encodedValues[][] = new byte[valuePool.size()][];
+        int valueBytes = 0;
+        for (int a = 0; a < encodedValues.length; a++) {
+            encodedValues[a] = valuePool.get(a).getBytes(StandardCharsets.UTF_8);
+            valueBytes += 4 + encodedValues[a].length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(28 + pad(size) + 4 * (3 * size + 1 + childIds.length) + valueBytes).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(CACHE_MAGIC).putInt(CACHE_VERSION).putLong(sourceHash);
+        buffer.putInt(size).putInt(childIds.length).putInt(encodedValues.length);
+        buffer.put(types);
+        buffer.position(buffer.position() + pad(size) - size);
+        buffer.asIntBuffer().put(parents).put(values).put(childOffsets).put(childIds);
+        buffer.position(buffer.position() + 4 * (3 * size + 1 + childIds.length));
+        for (byte value[] : encodedValues)
+            buffer.putInt(value.length).put(value);
+        buffer.flip();
+
+        Path path = Paths.get(fileName).toAbsolutePath();
+        Path temporary = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a tree written by writeCache, the node arrays are bulk copied out of the file read into a heap buffer.
+     * The file is not mapped, a mapping would stay open until collected and on Windows keep writeCache from replacing it.
+     * Returns null if there is no cache, or it was written by another format version or for another source.
+     */
+    public static AbstractTree readCache(String fileName, long sourceHash) throws IOException {
+        Path path = Paths.get(fileName);
+        if (!Files.isRegularFile(path))
+            return null;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < 28 || length > Integer.MAX_VALUE)
+                return null;
+            ByteBuffer header = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+            if (!readFully(channel, header) || header.getInt() != CACHE_MAGIC || header.getInt() != CACHE_VERSION || header.getLong() != sourceHash)
+                return null;
+            ByteBuffer buffer = ByteBuffer.allocate((int) length - 16).order(ByteOrder.LITTLE_ENDIAN);
+            if (!readFully(channel, buffer))
+                return null;
+
+            AbstractTree tree = new AbstractTree();
+            int size = buffer.getInt();
+            int childCount = buffer.getInt();
+            int valueCount = buffer.getInt();
+            if (size < 0 || childCount < 0 || valueCount < 0 || pad(size) + 4L * (3L * size + 1 + childCount) > buffer.remaining())
+                return null; //damaged
+            tree.types = new byte[size];
+            tree.parents = new int[size];
+            tree.values = new int[size];
+            tree.childOffsets = new int[size + 1];
+            tree.childIds = new int[childCount];
+            buffer.get(tree.types);
+            buffer.position(buffer.position() + pad(size) - size);
+            buffer.asIntBuffer().get(tree.parents).get(tree.values).get(tree.childOffsets).get(tree.childIds);
+            buffer.position(buffer.position() + 4 * (3 * size + 1 + childCount));
+
+            tree.valuePool = new ValuePool();
+            for (int a = 0; a < valueCount; a++) {
+                int valueLength = buffer.remaining() < 4? -1 : buffer.getInt();
+                if (valueLength < 0 || valueLength > buffer.remaining())
+                    return null;
+                byte value[] = new byte[valueLength];
+                buffer.get(value);
+                tree.valuePool.intern(new String(value, StandardCharsets.UTF_8));
+            }
+            return tree;
+        }
+    }
+
+    /**
+     * Fills the buffer from the channel and flips it, false if the file ends first.
+     */
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining())
+            if (channel.read(buffer) < 0)
+                return false;
+        buffer.flip();
+        return true;
+    }
+
+    private static int pad(int length) {
+        return (length + 3) & ~3;
+    }
+
+    public int size() {
+        return types.length;
+    }
+
+    public AbstractNodeType type(int node) {
+        return TYPES[types[node]];
+    }
+
+    public String val(int node) {
+        return values[node] == NONE? "" : valuePool.get(values[node]);
+    }
+
+    public void setVal(int node, String val) {
+        values[node] = valuePool.intern(val);
+    }
+
+    /**
+     * Interned id of the node value, equal values share the same id.
+     */
+    public int valueId(int node) {
+        return values[node];
+    }
+
+    public int parent(int node) {
+        return parents[node];
+    }
+
+    public int childCount(int node) {
+        return childOffsets[node + 1] - childOffsets[node];
+    }
+
+    public int child(int node, int index) {
+        return childIds[childOffsets[node] + index];
+    }
+
+    /**
+     * Collects node records in file order and lays them out by id once all records are known.
+     */
+    public static class Builder {
+        private byte types[];
+        private int values[];
+        private int recordChildStart[];
+        private int recordChildCount[];
+        private int children[];
+        private int childCount = 0;
+        private int maxId = NONE;
+        private ValuePool valuePool = new ValuePool();
+
+        public Builder(int expectedNodes) {
+            int capacity = Math.max(expectedNodes, 1);
+            types = new byte[capacity];
+            values = new int[capacity];
+            recordChildStart = new int[capacity];
+            recordChildCount = new int[capacity];
+            children = new int[capacity];
+            Arrays.fill(types, (byte) NONE);
+        }
+
+        public ValuePool valuePool() {
+            return valuePool;
+        }
+
+        /**
+         * Starts the record of node id, its children follow through addChild.
+         */
+        public void node(int id, AbstractNodeType type, int valueId) {
+            if (id >= types.length) {
+                int capacity = Math.max(id + 1, types.length * 2);
+                int oldCapacity = types.length;
+                types = Arrays.copyOf(types, capacity);
+                values = Arrays.copyOf(values, capacity);
+                recordChildStart = Arrays.copyOf(recordChildStart, capacity);
+                recordChildCount = Arrays.copyOf(recordChildCount, capacity);
+                Arrays.fill(types, oldCapacity, capacity, (byte) NONE);
+            }
+            types[id] = (byte) type.ordinal();
+            values[id] = valueId;
+            recordChildStart[id] = childCount;
+            recordChildCount[id] = 0;
+            maxId = Math.max(maxId, id);
+        }
+
+        public void addChild(int id, int childId) {
+            if (childCount == children.length)
+                children = Arrays.copyOf(children, childCount * 2);
+            children[childCount++] = childId;
+            recordChildCount[id]++;
+        }
+
+        private void build(AbstractTree tree) {
+            if (maxId == NONE)
+                throw new IllegalArgumentException("Abstract tree is empty");
+            int size = maxId + 1;
+            tree.types = Arrays.copyOf(types, size);
+            tree.values = Arrays.copyOf(values, size);
+            tree.valuePool = valuePool;
+            tree.parents = new int[size];
+            tree.childOffsets = new int[size + 1];
+            tree.childIds = new int[childCount];
+            Arrays.fill(tree.parents, NONE);
+
+            int offset = 0;
+            for (int id = 0; id < size; id++) {
+                tree.childOffsets[id] = offset;
+                if (types[id] == NONE)
+                    continue;
+                int count = recordChildCount[id];
+                System.arraycopy(children, recordChildStart[id], tree.childIds, offset, count);
+                for (int a = 0; a < count; a++) {
+                    int child = children[recordChildStart[id] + a];
+                    if (child >= size || types[child] == NONE)
+                        throw new IllegalArgumentException("Node " + id + " refers to missing child " + child);
+                    tree.parents[child] = id;
+                }
+                offset += count;
             }
+            tree.childOffsets[size] = offset;
         }
-        root = nodes[0];
-        root.construct();
     }
 }
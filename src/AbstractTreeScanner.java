@@ -0,0 +1,158 @@
+/**
+ * Character level scanner for the abstract tree file format:
+ * <pre>   id Type("val") child1 child2 ...</pre>
+ * Records are read straight out of the input without regular expressions into an AbstractTree.Builder,
+ * node values are interned from the input so only the first occurrence of a value creates a String.
+ */
+public class AbstractTreeScanner {
+    private static final AbstractNodeType TYPES[] = AbstractNodeType.values();
+
+    private CharSequence input;
+    private int position;
+    private int end;
+    private int lineNumber;
+
+    public AbstractTreeScanner() {
+        this("");
+    }
+
+    public AbstractTreeScanner(CharSequence input) {
+        reset(input);
+    }
+
+    public void reset(CharSequence input) {
+        this.input = input;
+        this.position = 0;
+        this.end = input.length();
+        this.lineNumber = 0;
+    }
+
+    /**
+     * Counts the non blank lines of the input without consuming them.
+     */
+    public int countRecords() {
+        int count = 0;
+        boolean blank = true;
+        for (int a = 0; a < end; a++) {
+            char c = input.charAt(a);
+            if (isLineEnd(c)) {
+                if (!blank)
+                    count++;
+                blank = true;
+            } else if (c != ' ' && c != '\t') {
+                blank = false;
+            }
+        }
+        return blank? count : count + 1;
+    }
+
+    /**
+     * Scans the next record into the builder.
+     * Blank lines are skipped, returns false once the input is exhausted.
+     */
+    public boolean next(AbstractTree.Builder builder) {
+        skipBlankLines();
+        if (position >= end)
+            return false;
+        lineNumber++;
+
+        skipSpaces();
+        int id = readInt();
+
+        skipSpaces();
+        int typeStart = position;
+        while (position < end && isLetter(input.charAt(position)))
+            position++;
+        AbstractNodeType type = lookupType(typeStart, position);
+
+        int valueId = AbstractTree.NONE;
+        if (position < end && input.charAt(position) == '(')
+            valueId = readValue(type, builder.valuePool());
+        builder.node(id, type, valueId);
+
+        skipSpaces();
+        while (position < end && !isLineEnd(input.charAt(position))) {
+            builder.addChild(id, readInt());
+            skipSpaces();
+        }
+        return true;
+    }
+
+    private int readValue(AbstractNodeType type, ValuePool valuePool) {
+        int open = position; //position of '('
+        int close = open + 1;
+        while (close < end && input.charAt(close) != ')' && !isLineEnd(input.charAt(close)))
+            close++;
+        if (close >= end || input.charAt(close) != ')')
+            throw error("unterminated value");
+        position = close + 1;
+
+        int start = open + 1;
+        int stop = close;
+        if (type != AbstractNodeType.String && stop - start >= 2 && input.charAt(start) == '"' && input.charAt(stop - 1) == '"') { //string literals keep their quotes
+            start++;
+            stop--;
+        }
+        return valuePool.intern(input, start, stop);
+    }
+
+    private AbstractNodeType lookupType(int start, int stop) {
+        int length = stop - start;
+        for (AbstractNodeType type : TYPES) {
+            String name = type.name();
+            if (name.length() != length)
+                continue;
+            int a = 0;
+            while (a < length && name.charAt(a) == input.charAt(start + a))
+                a++;
+            if (a == length)
+                return type;
+        }
+        throw error("unknown node type");
+    }
+
+    private int readInt() {
+        int start = position;
+        int value = 0;
+        while (position < end) {
+            char c = input.charAt(position);
+            if (c < '0' || c > '9')
+                break;
+            value = value * 10 + (c - '0');
+            position++;
+        }
+        if (position == start)
+            throw error("expected number");
+        return value;
+    }
+
+    private void skipSpaces() {
+        while (position < end) {
+            char c = input.charAt(position);
+            if (c != ' ' && c != '\t')
+                break;
+            position++;
+        }
+    }
+
+    private void skipBlankLines() {
+        while (position < end) {
+            char c = input.charAt(position);
+            if (c != ' ' && c != '\t' && !isLineEnd(c))
+                break;
+            position++;
+        }
+    }
+
+    private static boolean isLineEnd(char c) {
+        return c == '\n' || c == '\r';
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("Abstract tree record " + lineNumber + ": " + message);
+    }
+}
@@ -0,0 +1,403 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Runs the numbered BASIC the translator writes: LET, IF .. THEN GOTO, GOTO, GOSUB, RETURN, INPUT, PRINT and END.
+ * The program is decoded once into parallel arrays with jump targets resolved to instruction indices and every
+ * operand packed into an int: a kind in the low two bits and a slot in a variable or constant array above them,
+ * so running it does no lookups by name. Numbers are doubles, variables ending in $ hold strings, unassigned
+ * variables are 0 and the empty string. Errors the BASIC runtime would stop on, such as a type mismatch, a RETURN
+ * without GOSUB or a jump to an undefined line, throw IllegalStateException naming the line.
+ */
+public class BasicInterpreter {
+    private static final int NUMBER_VARIABLE = 0;
+    private static final int STRING_VARIABLE = 1;
+    private static final int NUMBER_CONSTANT = 2;
+    private static final int STRING_CONSTANT = 3;
+
+    private static final byte LET_NUMBER = 0; //numbers[result] = left, or left operator right
+    private static final byte LET_STRING = 1; //strings[result] = left, or left + right
+    private static final byte IF = 2;
+    private static final byte IF_STRING = 3; //comparison of strings
+    private static final byte GOTO = 4;
+    private static final byte GOSUB = 5;
+    private static final byte RETURN = 6;
+    private static final byte INPUT_NUMBER = 7;
+    private static final byte INPUT_STRING = 8;
+    private static final byte PRINT = 9;
+    private static final byte END = 10;
+    private static final byte ERROR = 11; //an instruction that fails when run, its message is in errors
+
+    private static final Operator OPERATORS[] = Operator.values();
+    static final int MAX_DEPTH = 1 << 20; //GOSUB calls without a RETURN, compiled programs stop at the same depth
+
+    private byte opcodes[];
+    private byte operators[];
+    private int results[];
+    private int lefts[];
+    private int rights[];
+    private int targets[];
+    private int lines[]; //BASIC line number of each instruction
+    private String errors[];
+    private int count = 0;
+
+    private HashMap<String, Integer> numberSlots = new HashMap<>();
+    private HashMap<String, Integer> stringSlots = new HashMap<>();
+    private ArrayList<Double> numberConstantList = new ArrayList<>();
+    private ArrayList<String> stringConstantList = new ArrayList<>();
+    private double numberConstants[];
+    private String stringConstants[];
+
+    private double numbers[];
+    private String strings[];
+    private int returnStack[] = new int[64];
+
+    /**
+     * Decodes a program, throws IllegalArgumentException on a line that is not in the dialect.
+     */
+    public BasicInterpreter(String program) {
+        String sourceLines[] = program.split("\r?\n");
+        int capacity = sourceLines.length + 1;
+        opcodes = new byte[capacity];
+        operators = new byte[capacity];
+        results = new int[capacity];
+        lefts = new int[capacity];
+        rights = new int[capacity];
+        targets = new int[capacity];
+        lines = new int[capacity];
+        errors = new String[capacity];
+
+        HashMap<Integer, Integer> lineIndices = new HashMap<>();
+        ArrayList<String> targetLines = new ArrayList<>();
+        for (String sourceLine : sourceLines) {
+            if (sourceLine.trim().isEmpty())
+                continue;
+            Scanner scanner = new Scanner(sourceLine);
+            int line = Integer.parseInt(scanner.word());
+            lineIndices.put(line, count);
+            lines[count] = line;
+            targets[count] = -1;
+            targetLines.add(null);
+            decode(scanner, targetLines);
+            count++;
+        }
+        for (int a = 0; a < count; a++) { //resolve jump targets to instruction indices
+            String targetLine = targetLines.get(a);
+            if (targetLine == null)
+                continue;
+            Integer target = null;
+            try {
+                target = lineIndices.get(Integer.parseInt(targetLine));
+            } catch (NumberFormatException e) {
+                //a label the translator could not resolve
+            }
+            if (target == null)
+                fail(a, "Undefined line " + targetLine);
+            else
+                targets[a] = target;
+        }
+        numberConstants = new double[numberConstantList.size()];
+        for (int a = 0; a < numberConstants.length; a++)
+            numberConstants[a] = numberConstantList.get(a);
+        stringConstants = stringConstantList.toArray(new String[stringConstantList.size()]);
+    }
+
+    /**
+     * Runs the program from its first line with all variables cleared, reading INPUT from input one line per value
+     * and writing PRINT to output one line per value. Stops after maxSteps instructions when it is positive.
+     * Returns the number of instructions run.
+     */
+    public long run(BufferedReader input, Appendable output, long maxSteps) throws IOException {
+        numbers = new double[numberSlots.size()];
+        strings = new String[stringSlots.size()];
+        Arrays.fill(strings, "");
+        int depth = 0;
+        long steps = 0;
+        int instruction = 0;
+        while (instruction < count) {
+            if (maxSteps > 0 && steps == maxSteps)
+                break;
+            steps++;
+            int current = instruction++;
+            switch (opcodes[current]) {
+                case LET_NUMBER:
+                    numbers[results[current]] = evaluate(operators[current], number(lefts[current]), rights[current] < 0? 0 : number(rights[current]));
+                    break;
+                case LET_STRING:
+                    strings[results[current]] = rights[current] < 0? string(lefts[current]) : string(lefts[current]) + string(rights[current]);
+                    break;
+                case IF:
+                    if ((rights[current] < 0? number(lefts[current]) : evaluate(operators[current], number(lefts[current]), number(rights[current]))) != 0)
+                        instruction = targets[current];
+                    break;
+                case IF_STRING:
+                    if (evaluate(operators[current], string(lefts[current]).compareTo(string(rights[current])), 0) != 0)
+                        instruction = targets[current];
+                    break;
+                case GOTO:
+                    instruction = targets[current];
+                    break;
+                case GOSUB:
+                    if (depth == MAX_DEPTH)
+                        throw error(current, "Out of memory, GOSUB nested too deep");
+                    if (depth == returnStack.length)
+                        returnStack = Arrays.copyOf(returnStack, depth * 2);
+                    returnStack[depth++] = instruction;
+                    instruction = targets[current];
+                    break;
+                case RETURN:
+                    if (depth == 0)
+                        throw error(current, "RETURN without GOSUB");
+                    instruction = returnStack[--depth];
+                    break;
+                case INPUT_NUMBER:
+                    String value = readInput(input, current);
+                    try {
+                        numbers[results[current]] = Double.parseDouble(value.trim());
+                    } catch (NumberFormatException e) {
+                        throw error(current, "Input " + value + " is not a number");
+                    }
+                    break;
+                case INPUT_STRING:
+                    strings[results[current]] = readInput(input, current);
+                    break;
+                case PRINT:
+                    if ((lefts[current] & 1) == 0) //number variables and constants have even kinds
+                        output.append(format(number(lefts[current])));
+                    else
+                        output.append(string(lefts[current]));
+                    output.append('\n');
+                    break;
+                case END:
+                    return steps;
+                default:
+                    throw error(current, errors[current]);
+            }
+        }
+        return steps;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    private double number(int operand) {
+        return (operand & 3) == NUMBER_VARIABLE? numbers[operand >> 2] : numberConstants[operand >> 2];
+    }
+
+    private String string(int operand) {
+        return (operand & 3) == STRING_VARIABLE? strings[operand >> 2] : stringConstants[operand >> 2];
+    }
+
+    /**
+     * Applies an operator, comparisons give -1 for true and 0 for false as in BASIC.
+     */
+    private static double evaluate(byte operator, double left, double right) {
+        switch (OPERATORS[operator]) {
+            case NONE:
+                return left;
+            case EQ:
+                return left == right? -1 : 0;
+            case NE:
+                return left != right? -1 : 0;
+            case LT:
+                return left < right? -1 : 0;
+            case LE:
+                return left <= right? -1 : 0;
+            case GT:
+                return left > right? -1 : 0;
+            case GE:
+                return left >= right? -1 : 0;
+            case ADD:
+                return left + right;
+            case SUB:
+                return left - right;
+            default:
+                return left * right;
+        }
+    }
+
+    /**
+     * Whole numbers are printed without a fraction.
+     */
+    static String format(double value) {
+        if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15)
+            return Long.toString((long) value);
+        return Double.toString(value);
+    }
+
+    private String readInput(BufferedReader input, int instruction) throws IOException {
+        String value = input == null? null : input.readLine();
+        if (value == null)
+            throw error(instruction, "Out of input");
+        return value;
+    }
+
+    private IllegalStateException error(int instruction, String message) {
+        return new IllegalStateException(message + " in line " + lines[instruction]);
+    }
+
+    private void decode(Scanner scanner, ArrayList<String> targetLines) {
+        String keyword = scanner.word();
+        operators[count] = 0;
+        results[count] = -1;
+        lefts[count] = -1;
+        rights[count] = -1;
+        switch (keyword) {
+            case "LET":
+                String name = scanner.word();
+                scanner.expect("=");
+                lefts[count] = operand(scanner.word());
+                if (!scanner.atEnd()) {
+                    operators[count] = operator(scanner.word());
+                    rights[count] = operand(scanner.word());
+                }
+                if (name.endsWith("$")) {
+                    opcodes[count] = LET_STRING;
+                    results[count] = slot(stringSlots, name);
+                    if (!isString(lefts[count]) || rights[count] >= 0 && (!isString(rights[count]) || operators[count] != Operator.ADD.ordinal()))
+                        fail(count, "Type mismatch");
+                } else {
+                    opcodes[count] = LET_NUMBER;
+                    results[count] = slot(numberSlots, name);
+                    if (isString(lefts[count]) || rights[count] >= 0 && isString(rights[count]))
+                        fail(count, "Type mismatch");
+                }
+                break;
+            case "IF":
+                lefts[count] = operand(scanner.word());
+                String word = scanner.word();
+                if (!word.equals("THEN")) {
+                    operators[count] = operator(word);
+                    rights[count] = operand(scanner.word());
+                    scanner.expect("THEN");
+                }
+                scanner.expect("GOTO");
+                targetLines.set(count, scanner.word());
+                if (rights[count] < 0)
+                    opcodes[count] = isString(lefts[count])? ERROR : IF;
+                else if (isString(lefts[count]) != isString(rights[count]))
+                    opcodes[count] = ERROR;
+                else
+                    opcodes[count] = isString(lefts[count])? IF_STRING : IF;
+                if (opcodes[count] == ERROR)
+                    errors[count] = "Type mismatch";
+                break;
+            case "GOTO":
+            case "GOSUB":
+                opcodes[count] = keyword.equals("GOTO")? GOTO : GOSUB;
+                targetLines.set(count, scanner.word());
+                break;
+            case "RETURN":
+                opcodes[count] = RETURN;
+                break;
+            case "END":
+                opcodes[count] = END;
+                break;
+            case "INPUT":
+                name = scanner.word();
+                opcodes[count] = name.endsWith("$")? INPUT_STRING : INPUT_NUMBER;
+                results[count] = slot(name.endsWith("$")? stringSlots : numberSlots, name);
+                break;
+            case "PRINT":
+                opcodes[count] = PRINT;
+                lefts[count] = operand(scanner.word());
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown statement " + keyword + " in line " + lines[count]);
+        }
+        if (!scanner.atEnd())
+            throw new IllegalArgumentException("Unexpected " + scanner.word() + " in line " + lines[count]);
+    }
+
+    private void fail(int instruction, String message) {
+        opcodes[instruction] = ERROR;
+        errors[instruction] = message;
+    }
+
+    private int operand(String token) {
+        if (token.startsWith("\"")) {
+            stringConstantList.add(token.substring(1, token.length() - 1));
+            return (stringConstantList.size() - 1) << 2 | STRING_CONSTANT;
+        }
+        char first = token.charAt(0);
+        if (Character.isDigit(first) || first == '-' || first == '.') {
+            try {
+                numberConstantList.add(Double.parseDouble(token));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Bad number " + token + " in line " + lines[count]);
+            }
+            return (numberConstantList.size() - 1) << 2 | NUMBER_CONSTANT;
+        }
+        if (token.endsWith("$"))
+            return slot(stringSlots, token) << 2 | STRING_VARIABLE;
+        return slot(numberSlots, token) << 2 | NUMBER_VARIABLE;
+    }
+
+    private static boolean isString(int operand) {
+        return (operand & 1) == 1;
+    }
+
+    private byte operator(String symbol) {
+        for (Operator operator : Operator.values())
+            if (operator != Operator.NONE && operator.symbol.equals(symbol))
+                return (byte) operator.ordinal();
+        throw new IllegalArgumentException("Unknown operator " + symbol + " in line " + lines[count]);
+    }
+
+    private static int slot(HashMap<String, Integer> slots, String name) {
+        Integer slot = slots.get(name);
+        if (slot == null) {
+            slot = slots.size();
+            slots.put(name, slot);
+        }
+        return slot;
+    }
+
+    /**
+     * Splits a line into words, a string literal with its quotes is one word.
+     */
+    private static class Scanner {
+        private final String line;
+        private int position = 0;
+
+        Scanner(String line) {
+            this.line = line;
+        }
+
+        boolean atEnd() {
+            skipSpaces();
+            return position == line.length();
+        }
+
+        String word() {
+            skipSpaces();
+            if (position == line.length())
+                throw new IllegalArgumentException("Unexpected end of " + line);
+            int start = position;
+            if (line.charAt(position) == '"') {
+                position = line.indexOf('"', position + 1) + 1;
+                if (position == 0)
+                    throw new IllegalArgumentException("Unterminated string in " + line);
+            } else {
+                while (position < line.length() && line.charAt(position) != ' ')
+                    position++;
+            }
+            return line.substring(start, position);
+        }
+
+        void expect(String word) {
+            String found = word();
+            if (!found.equals(word))
+                throw new IllegalArgumentException("Expected " + word + " but found " + found + " in " + line);
+        }
+
+        private void skipSpaces() {
+            while (position < line.length() && line.charAt(position) == ' ')
+                position++;
+        }
+    }
+}
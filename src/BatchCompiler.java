@@ -0,0 +1,171 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Compiles many abstract tree files in one JVM on a fixed pool of worker threads.
+ * The input is a directory, searched for .txt files, or a manifest listing one file per line, relative to the manifest.
+ * Every input gets its own name.aux and name.bas, and the binary cache of its tree, next to it or under an output directory
+ * mirroring its path below the batch root. When manifest entries lie outside the manifest directory, the outputs mirror
+ * the paths below the directory holding all inputs instead. Programs are checked with the sequential populate, the pool already keeps the processors busy.
+ */
+public class BatchCompiler {
+    private final List<Path> inputs;
+    private final List<Path> outputs; //output of each input, without the extension
+    private final Path outputDirectory; //null when the outputs go next to the inputs
+    private final boolean optimize;
+    private final int threads;
+    private long latencies[]; //nanoseconds to compile and write each input
+    private String failures[]; //message of each input that failed, null when it compiled
+    private long elapsed;
+
+    /**
+     * outputDirectory may be null to write the outputs next to the inputs.
+     */
+    public BatchCompiler(String input, String outputDirectory, boolean optimize, int threads) throws IOException {
+        Path path = Paths.get(input).toAbsolutePath().normalize();
+        this.inputs = Files.isDirectory(path)? findInputs(path) : readManifest(path);
+        this.outputDirectory = outputDirectory == null? null : Paths.get(outputDirectory).toAbsolutePath().normalize();
+        this.outputs = outputs(Files.isDirectory(path)? path : path.getParent());
+        this.optimize = optimize;
+        this.threads = Math.max(threads, 1);
+    }
+
+    /**
+     * Compiles every input, waiting until all are done.
+     */
+    public void compile() {
+        latencies = new long[inputs.size()];
+        failures = new String[inputs.size()];
+        HashMap<Path, Integer> written = new HashMap<>(); //first input of every output
+        ArrayList<Callable<Void>> tasks = new ArrayList<>();
+        for (int a = 0; a < inputs.size(); a++) {
+            Integer other = written.get(outputs.get(a));
+            if (other != null) { //like a and a.txt in a manifest, the first keeps the output
+                failures[a] = "output " + outputs.get(a) + " is already written for " + inputs.get(other);
+                continue;
+            }
+            written.put(outputs.get(a), a);
+            final int index = a;
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    long start = System.nanoTime();
+                    try {
+                        compile(inputs.get(index), outputs.get(index));
+                    } catch (Throwable e) { //a stack overflow or any other error fails this input only
+                        failures[index] = e.toString();
+                    }
+                    latencies[index] = System.nanoTime() - start;
+                    return null;
+                }
+            });
+        }
+
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            for (Future<Void> result : pool.invokeAll(tasks))
+                result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Batch compilation interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Batch compilation failed", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        elapsed = System.nanoTime() - start;
+    }
+
+    /**
+     * The failed inputs, then files per second and the median and 99th percentile time per file.
+     */
+    public String summary() {
+        StringBuilder summary = new StringBuilder();
+        int failed = 0;
+        for (int a = 0; a < inputs.size(); a++) {
+            if (failures[a] != null) {
+                summary.append(inputs.get(a)).append(": ").append(failures[a]).append(System.lineSeparator());
+                failed++;
+            }
+        }
+        long sorted[] = latencies.clone();
+        Arrays.sort(sorted);
+        summary.append(String.format("%d files, %d failed, %d threads, %.3f s%n", inputs.size(), failed, threads, elapsed / 1e9));
+        summary.append(String.format("%.1f files/s, p50 %.3f ms, p99 %.3f ms%n",
+                inputs.size() / Math.max(elapsed / 1e9, 1e-9), percentile(sorted, 50) / 1e6, percentile(sorted, 99) / 1e6));
+        return summary.toString();
+    }
+
+    private void compile(Path input, Path output) throws IOException {
+        if (output.getParent() != null)
+            Files.createDirectories(output.getParent());
+        String cacheFileName = outputDirectory == null? input + ".astc" : output + ".astc"; //no files beside the inputs with -out
+        AbstractTree abstractTree = Main.loadAbstractTree(input.toString(), cacheFileName, new PhaseTimer());
+        SemanticTable semanticTable = new SemanticTable(abstractTree, false);
+        Translator translator = new Translator(abstractTree, semanticTable, optimize);
+
+        Files.write(Paths.get(output + ".aux"), translator.getIntermediateCode().getBytes(StandardCharsets.UTF_8));
+        Files.write(Paths.get(output + ".bas"), translator.getFinalIntermediateCode().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Where each input's outputs go, without the extension: next to the input, or under the output directory at the input's
+     * path below the nearest directory holding root and every input, so distinct inputs keep distinct paths.
+     */
+    private List<Path> outputs(Path root) {
+        Path base = root;
+        for (Path input : inputs)
+            while (base != null && !input.startsWith(base))
+                base = base.getParent();
+        ArrayList<Path> outputs = new ArrayList<>();
+        for (Path input : inputs) {
+            Path relative = base == null? input.subpath(0, input.getNameCount()) : base.relativize(input); //null across drives
+            String name = (outputDirectory == null? input : outputDirectory.resolve(relative)).toString();
+            if (name.endsWith(".txt"))
+                name = name.substring(0, name.length() - 4);
+            outputs.add(Paths.get(name));
+        }
+        return outputs;
+    }
+
+    /**
+     * The nearest rank percentile of sorted values.
+     */
+    private static long percentile(long sorted[], int percent) {
+        if (sorted.length == 0)
+            return 0;
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+        return sorted[Math.max(rank, 1) - 1];
+    }
+
+    private static List<Path> findInputs(Path directory) throws IOException {
+        final ArrayList<Path> inputs = new ArrayList<>();
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, java.nio.file.attribute.BasicFileAttributes attributes) {
+                if (file.getFileName().toString().endsWith(".txt"))
+                    inputs.add(file);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        Collections.sort(inputs);
+        return inputs;
+    }
+
+    /**
+     * One path per line, blank lines and lines starting with # are skipped.
+     */
+    private static List<Path> readManifest(Path manifest) throws IOException {
+        ArrayList<Path> inputs = new ArrayList<>();
+        for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#"))
+                inputs.add(manifest.getParent().resolve(line).normalize());
+        }
+        return inputs;
+    }
+}
@@ -0,0 +1,184 @@
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Throughput benchmark for loading abstract tree files: the scanner against the regex loader, and text against the binary cache.
+ * Usage: java Benchmark [abstract tree file | statement count] [rounds]
+ */
+public class Benchmark {
+    public static void main(String strings[]) throws IOException {
+        String source = (strings.length > 0? strings[0] : "300");
+        int rounds = (strings.length > 1? Integer.parseInt(strings[1]) : 10);
+
+        ArrayList<String> lines = source.matches("[0-9]+")? generateWideCode(Integer.parseInt(source)) : readLines(source);
+        System.out.println("Input: " + source + " (" + lines.size() + " lines)");
+
+        compareLoaders(lines, rounds);
+        compareCache(lines, rounds);
+    }
+
+    private static void compareLoaders(ArrayList<String> lines, int rounds) {
+        for (int warmup = 0; warmup < 3; warmup++)
+            new AbstractTree(lines);
+        double scanner = measure(lines, rounds, false);
+
+        double legacy;
+        try {
+            checkEquivalent(legacyLoad(lines), new AbstractTree(lines));
+            for (int warmup = 0; warmup < 3; warmup++)
+                legacyLoad(lines);
+            legacy = measure(lines, rounds, true);
+        } catch (StackOverflowError e) { //the children regex recurses once per character of a line
+            System.out.println("regex loader:   stack overflow");
+            System.out.println(String.format("scanner loader: %,.0f lines/s", scanner));
+            return;
+        }
+        System.out.println(String.format("regex loader:   %,.0f lines/s", legacy));
+        System.out.println(String.format("scanner loader: %,.0f lines/s (%.1fx)", scanner, scanner / legacy));
+    }
+
+    /**
+     * Compares parsing the mapped text file against reloading the binary cache of the same tree.
+     */
+    private static void compareCache(ArrayList<String> lines, int rounds) throws IOException {
+        File file = File.createTempFile("benchmark", ".txt");
+        File cacheFile = new File(file.getPath() + ".astc");
+        try {
+            PrintWriter out = new PrintWriter(file);
+            for (String line : lines)
+                out.println(line);
+            out.close();
+            long sourceHash = AbstractTree.sourceHash(file.getPath());
+            AbstractTree.load(file.getPath()).writeCache(cacheFile.getPath(), sourceHash);
+            checkEquivalent(AbstractTree.load(file.getPath()), AbstractTree.readCache(cacheFile.getPath(), sourceHash));
+
+            long parse = Long.MAX_VALUE, reload = Long.MAX_VALUE;
+            for (int a = 0; a < rounds + 3; a++) {
+                long start = System.nanoTime();
+                AbstractTree.load(file.getPath());
+                parse = Math.min(parse, System.nanoTime() - start);
+                start = System.nanoTime();
+                AbstractTree.readCache(cacheFile.getPath(), AbstractTree.sourceHash(file.getPath()));
+                reload = Math.min(reload, System.nanoTime() - start);
+            }
+            System.out.println(String.format("text parse:     %.3f ms", parse / 1e6));
+            System.out.println(String.format("cache reload:   %.3f ms including source hash (%.0f%% of parse)", reload / 1e6, 100.0 * reload / parse));
+        } finally {
+            file.delete();
+            cacheFile.delete();
+        }
+    }
+
+    private static double measure(ArrayList<String> lines, int rounds, boolean legacy) {
+        long start = System.nanoTime();
+        for (int a = 0; a < rounds; a++) {
+            if (legacy)
+                legacyLoad(lines);
+            else
+                new AbstractTree(lines);
+        }
+        long elapsed = System.nanoTime() - start;
+        return (double) lines.size() * rounds / (elapsed / 1e9);
+    }
+
+    /**
+     * Generates a program in the shape of at.txt: declarations followed by a wide Code block of additions.
+     */
+    static ArrayList<String> generateWideCode(int statements) {
+        ArrayList<String> lines = new ArrayList<>();
+        int variables = 26;
+        int nextId = 2 + variables + statements;
+        StringBuilder code = new StringBuilder(" 1 Code");
+        for (int a = 0; a < variables + statements; a++)
+            code.append(' ').append(2 + a);
+
+        lines.add("0 Prog 1");
+        lines.add(code.toString());
+        for (int a = 0; a < variables; a++)
+            lines.add("  " + (2 + a) + " NumDecl(\"" + (char) ('a' + a) + "\")");
+        for (int a = 0; a < statements; a++) {
+            int assign = 2 + variables + a;
+            int target = nextId++, expr = nextId++, left = nextId++, right = nextId++;
+            lines.add("  " + assign + " Assign " + target + " " + expr);
+            lines.add("   " + target + " Var(\"" + (char) ('a' + a % variables) + "\")");
+            lines.add("   " + expr + " AddExpr " + left + " " + right);
+            lines.add("    " + left + " Var(\"" + (char) ('a' + (a + 1) % variables) + "\")");
+            lines.add("    " + right + " Number(\"" + a + "\")");
+        }
+        return lines;
+    }
+
+    private static ArrayList<String> readLines(String fileName) throws IOException {
+        ArrayList<String> lines = new ArrayList<>();
+        BufferedReader bufferedReader = new BufferedReader(new FileReader(fileName));
+        String line;
+        while ((line = bufferedReader.readLine()) != null)
+            lines.add(line);
+        bufferedReader.close();
+        return lines;
+    }
+
+    private static void checkEquivalent(AbstractTree expected, AbstractTree actual) {
+        if (expected.size() != actual.size())
+            throw new IllegalStateException("Loaders disagree on the node count");
+        for (int a = 0; a < expected.size(); a++) {
+            if (expected.type(a) != actual.type(a) || !expected.val(a).equals(actual.val(a)) || expected.childCount(a) != actual.childCount(a))
+                throw new IllegalStateException("Loaders disagree on node " + a);
+        }
+    }
+
+    /**
+     * The original regular expression based line parser, kept as the baseline.
+     */
+    static AbstractTree legacyLoad(ArrayList<String> lines) {
+        AbstractTree.Builder builder = new AbstractTree.Builder(lines.size());
+        for (String line : lines) {
+            Matcher matcher = Pattern.compile("[0-9]+").matcher(line);
+            matcher.find();
+            int id = Integer.parseInt(matcher.group(0));
+
+            matcher = Pattern.compile("([a-z]|[A-Z])+(\\(.*\\))?").matcher(line);
+            matcher.find();
+            String nodeDecl = matcher.group(0);
+
+            matcher = Pattern.compile("^([a-z]|[A-Z])+").matcher(nodeDecl);
+            matcher.find();
+            AbstractNodeType nodeType = AbstractNodeType.valueOf(matcher.group(0));
+
+            matcher = Pattern.compile("([0-9]*| )*$").matcher(line);
+            matcher.find();
+
+            String childrenString = matcher.group(0).trim();
+            int children[] = childrenString.length() == 0? null : Arrays.asList(childrenString.split(" ")).stream().mapToInt(Integer::parseInt).toArray();
+            switch (nodeType) {
+                case Call:
+                case Number:
+                case NumDecl:
+                case Proc:
+                case Var:
+                case StrDecl:
+                case BoolDecl:
+                    matcher = Pattern.compile("([0-9]|[a-z]|[A-Z]| )+").matcher(nodeDecl);
+                    matcher.find();
+                    matcher.find();
+                    builder.node(id, nodeType, builder.valuePool().intern(matcher.group(0)));
+                    break;
+                case String:
+                    matcher = Pattern.compile("\"([0-9]|[a-z]|[A-Z]| )*\"").matcher(nodeDecl.substring(nodeDecl.indexOf("(")));
+                    matcher.find();
+                    builder.node(id, nodeType, builder.valuePool().intern(matcher.group(0)));
+                    break;
+                default:
+                    builder.node(id, nodeType, AbstractTree.NONE);
+                    break;
+            }
+            if (children != null)
+                for (int child : children)
+                    builder.addChild(id, child);
+        }
+        return new AbstractTree(builder);
+    }
+}
@@ -0,0 +1,902 @@
+import java.io.*;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Compiles intermediate code into a JVM class, a second backend next to the BASIC text.
+ * The main program and every procedure become static methods, GOSUB an invokestatic and jumps real branches.
+ * Program variables are static double or String fields and temporaries double locals of the method using them.
+ * Operand types, comparisons giving -1 and 0, and the errors BASIC stops on follow BasicInterpreter, so a program
+ * prints the same through either backend. A method too large for the JVM is split into chunk methods that each run
+ * part of its instructions and return the one to continue at, its temporaries then become fields.
+ * GOSUB counts the depth of calls in a static int and stops at BasicInterpreter.MAX_DEPTH, the program runs on
+ * a thread with a stack deep enough to get there.
+ * The class is written for class file version 49, which needs no stack map frames, and run through its own class loader;
+ * its static run(BufferedReader, Appendable) resets the variables and runs the main program.
+ */
+public class BytecodeCompiler {
+    private static final int MAX_STACK = 8;
+    private static final int MAX_METHOD_BYTES = Short.MAX_VALUE; //branch offsets are signed shorts
+    private static final int CHUNK_BYTES = 8192; //a chunk ends at the next label after this
+    private static final int MAX_CHUNK_BYTES = 16384; //or anywhere after this, leaving room for its entry switch and exits
+    private static final long STACK_BYTES = 1L << 30; //room for MAX_DEPTH calls of split procedures
+    private static final String STRING = "Ljava/lang/String;";
+
+    private static final int ICONST_M1 = 0x02;
+    private static final int ICONST_0 = 0x03;
+    private static final int ICONST_1 = 0x04;
+    private static final int DCONST_0 = 0x0e;
+    private static final int DCONST_1 = 0x0f;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC = 0x12;
+    private static final int LDC_W = 0x13;
+    private static final int LDC2_W = 0x14;
+    private static final int ALOAD = 0x19;
+    private static final int DLOAD = 0x18;
+    private static final int ILOAD_0 = 0x1a;
+    private static final int ISTORE_0 = 0x3b;
+    private static final int DSTORE = 0x39;
+    private static final int POP = 0x57;
+    private static final int ISUB = 0x64;
+    private static final int DADD = 0x63;
+    private static final int DSUB = 0x67;
+    private static final int DMUL = 0x6b;
+    private static final int DCMPL = 0x97;
+    private static final int DCMPG = 0x98;
+    private static final int IFEQ = 0x99;
+    private static final int IFNE = 0x9a;
+    private static final int IFLT = 0x9b;
+    private static final int IFGE = 0x9c;
+    private static final int IFGT = 0x9d;
+    private static final int IFLE = 0x9e;
+    private static final int GOTO = 0xa7;
+    private static final int LOOKUPSWITCH = 0xab;
+    private static final int IRETURN = 0xac;
+    private static final int RETURN = 0xb1;
+    private static final int GETSTATIC = 0xb2;
+    private static final int PUTSTATIC = 0xb3;
+    private static final int INVOKEVIRTUAL = 0xb6;
+    private static final int INVOKESTATIC = 0xb8;
+    private static final int WIDE = 0xc4;
+
+    private static final String RUNTIME = "BytecodeCompiler";
+
+    private final IntermediateCode code;
+    private final String className;
+    private final int size;
+    private int lines[]; //BASIC line number of each instruction
+    private int labelInstructions[];
+    private int methodOf[]; //procedure method of each function label, NONE for other labels
+    private ArrayList<Integer> entries = new ArrayList<>(); //first instruction of every method, the main program first
+    private HashMap<String, Integer> fields = new HashMap<>(); //variable name to its field reference
+    private ConstantPool pool = new ConstantPool();
+    private ByteArrayOutputStream methods = new ByteArrayOutputStream();
+    private int methodCount = 0;
+    private byte classFile[];
+
+    public BytecodeCompiler(IntermediateCode code, String className) {
+        this.code = code;
+        this.className = className;
+        this.size = code.size();
+        compile();
+    }
+
+    public byte[] toByteArray() {
+        return classFile.clone();
+    }
+
+    public void save(String fileName) throws IOException {
+        Files.write(Paths.get(fileName), classFile);
+    }
+
+    /**
+     * Defines the class in a class loader of its own.
+     */
+    public Class<?> load() {
+        return new ClassLoader(BytecodeCompiler.class.getClassLoader()) {
+            Class<?> define() {
+                return defineClass(className, classFile, 0, classFile.length);
+            }
+        }.define();
+    }
+
+    /**
+     * Runs a compiled program on a thread of its own with a STACK_BYTES stack, reading INPUT from input and writing PRINT to output.
+     * Errors of the program are thrown as IllegalStateException like BasicInterpreter does.
+     */
+    public static void run(Class<?> program, final BufferedReader input, final Appendable output) throws IOException {
+        final Method run;
+        try {
+            run = program.getMethod("run", BufferedReader.class, Appendable.class);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException(program + " is not a compiled program", e);
+        }
+        final Throwable failure[] = new Throwable[1];
+        Thread thread = new Thread(null, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    run.invoke(null, input, output);
+                } catch (InvocationTargetException e) {
+                    failure[0] = e.getCause();
+                } catch (IllegalAccessException | RuntimeException | Error e) {
+                    failure[0] = e;
+                }
+            }
+        }, "BASIC program", STACK_BYTES);
+        thread.start();
+        boolean interrupted = false;
+        while (thread.isAlive()) { //the program cannot be stopped, wait for it and pass on the interrupt
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+
+        Throwable cause = failure[0];
+        if (cause == null || cause instanceof Halt)
+            return;
+        if (cause instanceof IllegalAccessException)
+            throw new IllegalArgumentException(program + " is not a compiled program", cause);
+        if (cause instanceof StackOverflowError) //a JVM that did not give the thread its stack
+            throw new IllegalStateException("Out of memory, GOSUB nested too deep");
+        if (cause instanceof IOException)
+            throw (IOException) cause;
+        if (cause instanceof RuntimeException)
+            throw (RuntimeException) cause;
+        throw new IllegalStateException(cause);
+    }
+
+    //called from compiled programs
+
+    public static void print(Appendable output, double value) throws IOException {
+        output.append(BasicInterpreter.format(value)).append('\n');
+    }
+
+    public static void print(Appendable output, String value) throws IOException {
+        output.append(value).append('\n');
+    }
+
+    public static double inputNumber(BufferedReader input, int line) throws IOException {
+        String value = inputString(input, line);
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalStateException("Input " + value + " is not a number in line " + line);
+        }
+    }
+
+    public static String inputString(BufferedReader input, int line) throws IOException {
+        String value = input == null? null : input.readLine();
+        if (value == null)
+            throw new IllegalStateException("Out of input in line " + line);
+        return value;
+    }
+
+    /**
+     * The depth after a GOSUB in line from depth.
+     */
+    public static int enter(int depth, int line) {
+        if (depth == BasicInterpreter.MAX_DEPTH)
+            fail("Out of memory, GOSUB nested too deep", line);
+        return depth + 1;
+    }
+
+    public static void fail(String message, int line) {
+        throw new IllegalStateException(message + " in line " + line);
+    }
+
+    public static void halt() {
+        throw Halt.INSTANCE;
+    }
+
+    /**
+     * Thrown by END, unwinds every procedure method at once.
+     */
+    public static class Halt extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        static final Halt INSTANCE = new Halt();
+
+        private Halt() {
+            super(null, null, false, false);
+        }
+    }
+
+    private void compile() {
+        lines = new int[size];
+        labelInstructions = new int[code.labelCount()];
+        Arrays.fill(labelInstructions, IntermediateCode.NONE);
+        int line = 0;
+        for (int a = 0; a < size; a++) {
+            lines[a] = line;
+            if (code.opcode(a) == Opcode.LABEL)
+                labelInstructions[code.target(a)] = a;
+            else
+                line++;
+        }
+        methodOf = new int[code.labelCount()];
+        Arrays.fill(methodOf, IntermediateCode.NONE);
+        entries.add(0);
+        for (int a = 0; a < size; a++) {
+            int label = code.target(a);
+            if (code.opcode(a) == Opcode.GOSUB && labelInstructions[label] != IntermediateCode.NONE && methodOf[label] == IntermediateCode.NONE) {
+                methodOf[label] = entries.size();
+                entries.add(labelInstructions[label]);
+            }
+        }
+        for (int operand = 0; operand < code.operandCount(); operand++)
+            if (code.operandKind(operand) == IntermediateCode.VARIABLE && !fields.containsKey(code.operandName(operand)))
+                fields.put(code.operandName(operand), pool.field(className, code.operandName(operand), descriptor(operand)));
+
+        for (int method = 0; method < entries.size(); method++)
+            compileMethod(method);
+        compileRun();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            int thisClass = pool.classReference(className);
+            int superClass = pool.classReference("java/lang/Object");
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            pool.write(out);
+            out.writeShort(0x0021); //public super
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); //interfaces
+            ArrayList<String> fieldNames = new ArrayList<>(fields.keySet());
+            Collections.sort(fieldNames);
+            out.writeShort(fieldNames.size() + 3);
+            writeField(out, "in", "Ljava/io/BufferedReader;");
+            writeField(out, "out", "Ljava/lang/Appendable;");
+            writeField(out, "depth", "I");
+            for (String name : fieldNames)
+                writeField(out, name, name.endsWith("$")? STRING : "D");
+            out.writeShort(methodCount);
+            methods.writeTo(out);
+            out.writeShort(0); //attributes
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        classFile = bytes.toByteArray();
+    }
+
+    private void writeField(DataOutputStream out, String name, String descriptor) throws IOException {
+        out.writeShort(0x000a); //private static
+        out.writeShort(pool.utf8(name));
+        out.writeShort(pool.utf8(descriptor));
+        out.writeShort(0);
+    }
+
+    /**
+     * The instructions a method runs are the ones reached from its entry without following GOSUB, written in code order
+     * so falling through to the next instruction stays falling through. A method longer than MAX_METHOD_BYTES is split.
+     */
+    private void compileMethod(int method) {
+        boolean reached[] = new boolean[size];
+        ArrayDeque<Integer> pending = new ArrayDeque<>();
+        pending.push(entries.get(method));
+        reached[entries.get(method)] = true;
+        while (!pending.isEmpty()) {
+            int instruction = pending.pop();
+            Opcode opcode = code.opcode(instruction);
+            int target = code.target(instruction) == IntermediateCode.NONE? IntermediateCode.NONE : labelInstructions[code.target(instruction)];
+            if ((opcode == Opcode.GOTO || opcode == Opcode.IF) && target != IntermediateCode.NONE && !reached[target]) {
+                reached[target] = true;
+                pending.push(target);
+            }
+            boolean fallsThrough = opcode != Opcode.GOTO && opcode != Opcode.RETURN && opcode != Opcode.END;
+            if (fallsThrough && instruction + 1 < size && !reached[instruction + 1]) {
+                reached[instruction + 1] = true;
+                pending.push(instruction + 1);
+            }
+        }
+
+        MethodWriter writer = new MethodWriter();
+        HashMap<String, Integer> locals = new HashMap<>();
+        for (int a = 0; a < size; a++) { //temporaries start at 0 so every path leaves them assigned
+            if (!reached[a])
+                continue;
+            for (int operand : new int[]{code.result(a), code.left(a), code.right(a)}) {
+                if (operand != IntermediateCode.NONE && code.operandKind(operand) == IntermediateCode.TEMP && !locals.containsKey(code.operandName(operand))) {
+                    locals.put(code.operandName(operand), 2 * locals.size());
+                    writer.op(DCONST_0);
+                    writer.op(DSTORE, 2 * (locals.size() - 1));
+                }
+            }
+        }
+        int instructionOffsets[] = new int[size];
+        ArrayList<int[]> jumps = new ArrayList<>(); //offset of the branch, offset of its operand, target instruction
+        for (int a = 0; a < size; a++) {
+            if (!reached[a])
+                continue;
+            instructionOffsets[a] = writer.length();
+            compileInstruction(writer, a, locals, jumps);
+        }
+        writer.op(RETURN);
+
+        String name = method == 0? "main" : "procedure" + method;
+        if (writer.length() > MAX_METHOD_BYTES) {
+            int sizes[] = new int[size];
+            int end = writer.length() - 1;
+            for (int a = size - 1; a >= 0; a--) {
+                if (reached[a]) {
+                    sizes[a] = end - instructionOffsets[a];
+                    end = instructionOffsets[a];
+                }
+            }
+            compileChunks(name, entries.get(method), reached, sizes);
+            return;
+        }
+        for (int jump[] : jumps)
+            writer.patch(jump[1], instructionOffsets[labelInstructions[code.target(jump[2])]] - jump[0]);
+        writer.writeMethod(0x000a, name, "()V", Math.max(2 * locals.size(), 1)); //private static
+    }
+
+    /**
+     * Splits the reached instructions of a method into chunks of about CHUNK_BYTES, ending at labels where there are some.
+     * Chunk k is the static int method name$k(int entry): it starts at entry, which is its first instruction or a label
+     * jumped to from another chunk, and returns the instruction to continue at, -1 when the method returns.
+     * The method itself calls chunks until one returns -1. sizes are the bytes each instruction took in the whole method.
+     */
+    private void compileChunks(String name, int entry, boolean reached[], int sizes[]) {
+        int chunkOf[] = new int[size];
+        ArrayList<Integer> starts = new ArrayList<>();
+        int bytes = 0;
+        for (int a = 0; a < size; a++) {
+            if (!reached[a])
+                continue;
+            if (starts.isEmpty() || bytes >= CHUNK_BYTES && code.opcode(a) == Opcode.LABEL || bytes + sizes[a] > MAX_CHUNK_BYTES) {
+                starts.add(a);
+                bytes = 0;
+            }
+            chunkOf[a] = starts.size() - 1;
+            bytes += sizes[a] + 3; //temporaries are fields now, a load or store may be a byte longer
+            for (int operand : new int[]{code.result(a), code.left(a), code.right(a)}) //kept across chunks
+                if (operand != IntermediateCode.NONE && code.operandKind(operand) == IntermediateCode.TEMP && !fields.containsKey(code.operandName(operand)))
+                    fields.put(code.operandName(operand), pool.field(className, code.operandName(operand), "D"));
+        }
+        TreeMap<Integer, Integer> entryChunks = new TreeMap<>(); //instructions a chunk is called at, to the chunk
+        for (int chunk = 0; chunk < starts.size(); chunk++)
+            entryChunks.put(starts.get(chunk), chunk);
+        entryChunks.put(entry, chunkOf[entry]);
+        for (int a = 0; a < size; a++) {
+            Opcode opcode = code.opcode(a);
+            if (!reached[a] || opcode != Opcode.GOTO && opcode != Opcode.IF || labelInstructions[code.target(a)] == IntermediateCode.NONE)
+                continue;
+            int target = labelInstructions[code.target(a)];
+            if (chunkOf[target] != chunkOf[a])
+                entryChunks.put(target, chunkOf[target]);
+        }
+
+        HashMap<String, Integer> locals = new HashMap<>();
+        int instructionOffsets[] = new int[size];
+        for (int chunk = 0; chunk < starts.size(); chunk++) {
+            MethodWriter body = new MethodWriter(true);
+            ArrayList<int[]> jumps = new ArrayList<>();
+            int last = chunk + 1 < starts.size()? starts.get(chunk + 1) : size;
+            for (int a = starts.get(chunk); a < last; a++) {
+                if (!reached[a])
+                    continue;
+                instructionOffsets[a] = body.length();
+                compileInstruction(body, a, locals, jumps);
+            }
+            body.constant(pool.integerConstant(chunk + 1 < starts.size()? last : -1)); //falls through into the next chunk
+            body.op(IRETURN);
+            HashMap<Integer, Integer> exits = new HashMap<>(); //a jump out of the chunk returns its target
+            for (int jump[] : jumps) {
+                int target = labelInstructions[code.target(jump[2])];
+                if (chunkOf[target] != chunk && !exits.containsKey(target)) {
+                    exits.put(target, body.length());
+                    body.constant(pool.integerConstant(target));
+                    body.op(IRETURN);
+                }
+            }
+            for (int jump[] : jumps) {
+                int target = labelInstructions[code.target(jump[2])];
+                body.patch(jump[1], (chunkOf[target] == chunk? instructionOffsets[target] : exits.get(target)) - jump[0]);
+            }
+
+            ArrayList<Integer> keys = new ArrayList<>();
+            for (Map.Entry<Integer, Integer> entryChunk : entryChunks.entrySet())
+                if (entryChunk.getValue() == chunk)
+                    keys.add(entryChunk.getKey());
+            MethodWriter writer = new MethodWriter(true);
+            if (keys.size() > 1) {
+                writer.op(ILOAD_0);
+                int headLength = 1 + switchLength(1, keys.size());
+                int targets[] = new int[keys.size()];
+                for (int key = 0; key < keys.size(); key++)
+                    targets[key] = headLength + instructionOffsets[keys.get(key)];
+                writer.lookupSwitch(keys, targets, headLength);
+            }
+            writer.append(body.code());
+            writer.writeMethod(0x000a, name + "$" + chunk, "(I)I", 1); //private static
+        }
+
+        MethodWriter writer = new MethodWriter();
+        writer.constant(pool.integerConstant(entry));
+        writer.op(ISTORE_0);
+        int loop = writer.length();
+        writer.op(ILOAD_0);
+        int calls = loop + 1 + switchLength(loop + 1, entryChunks.size());
+        ArrayList<Integer> keys = new ArrayList<>(entryChunks.keySet());
+        int targets[] = new int[keys.size()];
+        for (int key = 0; key < keys.size(); key++)
+            targets[key] = calls + 8 * entryChunks.get(keys.get(key));
+        writer.lookupSwitch(keys, targets, calls + 8 * starts.size()); //-1 returns
+        for (int chunk = 0; chunk < starts.size(); chunk++) { //8 bytes each
+            writer.op(ILOAD_0);
+            writer.op(INVOKESTATIC, pool.method(className, name + "$" + chunk, "(I)I"));
+            writer.op(ISTORE_0);
+            writer.jump(GOTO, loop - writer.length());
+        }
+        writer.op(RETURN);
+        writer.writeMethod(0x000a, name, "()V", 1); //private static
+    }
+
+    /**
+     * Bytes of a lookupswitch with the given cases written at position.
+     */
+    private static int switchLength(int position, int cases) {
+        return 1 + 3 - position % 4 + 8 + 8 * cases;
+    }
+
+    private void compileInstruction(MethodWriter writer, int instruction, HashMap<String, Integer> locals, ArrayList<int[]> jumps) {
+        int result = code.result(instruction);
+        int left = code.left(instruction);
+        int right = code.right(instruction);
+        Operator operator = code.operator(instruction);
+        Opcode opcode = code.opcode(instruction);
+        if ((opcode == Opcode.IF || opcode == Opcode.GOTO || opcode == Opcode.GOSUB) && labelInstructions[code.target(instruction)] == IntermediateCode.NONE) {
+            fail(writer, "Undefined line " + code.labelName(code.target(instruction)), instruction);
+            return;
+        }
+        switch (opcode) {
+            case LET:
+                if (isString(result)) {
+                    if (!isString(left) || right != IntermediateCode.NONE && (!isString(right) || operator != Operator.ADD)) {
+                        fail(writer, "Type mismatch", instruction);
+                        break;
+                    }
+                    load(writer, left, locals);
+                    if (right != IntermediateCode.NONE) {
+                        load(writer, right, locals);
+                        writer.op(INVOKEVIRTUAL, pool.method("java/lang/String", "concat", "(Ljava/lang/String;)Ljava/lang/String;"));
+                    }
+                } else {
+                    if (isString(left) || right != IntermediateCode.NONE && isString(right)) {
+                        fail(writer, "Type mismatch", instruction);
+                        break;
+                    }
+                    load(writer, left, locals);
+                    if (right != IntermediateCode.NONE) {
+                        load(writer, right, locals);
+                        switch (operator) {
+                            case ADD:
+                                writer.op(DADD);
+                                break;
+                            case SUB:
+                                writer.op(DSUB);
+                                break;
+                            case MUL:
+                                writer.op(DMUL);
+                                break;
+                            default: //a comparison is -1 when it holds and 0 when not
+                                compare(writer, operator, false);
+                                writer.jump(branch(operator), 7); //over the next two instructions
+                                writer.op(DCONST_0);
+                                writer.jump(GOTO, 6);
+                                writer.op(LDC2_W, pool.doubleConstant(-1));
+                                break;
+                        }
+                    }
+                }
+                store(writer, result, locals);
+                break;
+            case IF:
+                if (right == IntermediateCode.NONE) {
+                    if (isString(left)) {
+                        fail(writer, "Type mismatch", instruction);
+                        break;
+                    }
+                    load(writer, left, locals);
+                    writer.op(DCONST_0);
+                    writer.op(DCMPL);
+                    jump(writer, IFNE, instruction, jumps);
+                } else if (isString(left) != isString(right)) {
+                    fail(writer, "Type mismatch", instruction);
+                } else {
+                    load(writer, left, locals);
+                    load(writer, right, locals);
+                    compare(writer, operator, isString(left));
+                    jump(writer, branch(operator), instruction, jumps);
+                }
+                break;
+            case GOTO:
+                jump(writer, GOTO, instruction, jumps);
+                break;
+            case GOSUB:
+                int depth = pool.field(className, "depth", "I");
+                writer.op(GETSTATIC, depth);
+                writer.constant(pool.integerConstant(lines[instruction]));
+                writer.op(INVOKESTATIC, pool.method(RUNTIME, "enter", "(II)I"));
+                writer.op(PUTSTATIC, depth);
+                writer.op(INVOKESTATIC, pool.method(className, "procedure" + methodOf[code.target(instruction)], "()V"));
+                writer.op(GETSTATIC, depth);
+                writer.op(ICONST_1);
+                writer.op(ISUB);
+                writer.op(PUTSTATIC, depth);
+                break;
+            case RETURN:
+                writer.ret();
+                break;
+            case INPUT:
+                writer.op(GETSTATIC, pool.field(className, "in", "Ljava/io/BufferedReader;"));
+                writer.constant(pool.integerConstant(lines[instruction]));
+                if (isString(result))
+                    writer.op(INVOKESTATIC, pool.method(RUNTIME, "inputString", "(Ljava/io/BufferedReader;I)Ljava/lang/String;"));
+                else
+                    writer.op(INVOKESTATIC, pool.method(RUNTIME, "inputNumber", "(Ljava/io/BufferedReader;I)D"));
+                store(writer, result, locals);
+                break;
+            case PRINT:
+                writer.op(GETSTATIC, pool.field(className, "out", "Ljava/lang/Appendable;"));
+                load(writer, left, locals);
+                writer.op(INVOKESTATIC, pool.method(RUNTIME, "print", isString(left)? "(Ljava/lang/Appendable;Ljava/lang/String;)V" : "(Ljava/lang/Appendable;D)V"));
+                break;
+            case END:
+                writer.op(INVOKESTATIC, pool.method(RUNTIME, "halt", "()V"));
+                writer.ret();
+                break;
+        }
+    }
+
+    /**
+     * Leaves an int on the stack that compares to 0 as the operands compare.
+     */
+    private void compare(MethodWriter writer, Operator operator, boolean strings) {
+        if (strings)
+            writer.op(INVOKEVIRTUAL, pool.method("java/lang/String", "compareTo", "(Ljava/lang/String;)I"));
+        else
+            writer.op(operator == Operator.LT || operator == Operator.LE? DCMPG : DCMPL);
+    }
+
+    private static int branch(Operator operator) {
+        switch (operator) {
+            case EQ:
+                return IFEQ;
+            case NE:
+                return IFNE;
+            case LT:
+                return IFLT;
+            case LE:
+                return IFLE;
+            case GT:
+                return IFGT;
+            default:
+                return IFGE;
+        }
+    }
+
+    private void jump(MethodWriter writer, int opcode, int instruction, ArrayList<int[]> jumps) {
+        int offset = writer.length();
+        writer.jump(opcode, 0);
+        jumps.add(new int[]{offset, offset + 1, instruction});
+    }
+
+    private void fail(MethodWriter writer, String message, int instruction) {
+        writer.constant(pool.stringConstant(message));
+        writer.constant(pool.integerConstant(lines[instruction]));
+        writer.op(INVOKESTATIC, pool.method(RUNTIME, "fail", "(Ljava/lang/String;I)V"));
+    }
+
+    private void load(MethodWriter writer, int operand, HashMap<String, Integer> locals) {
+        String name = code.operandName(operand);
+        switch (code.operandKind(operand)) {
+            case IntermediateCode.CONSTANT:
+                if (isString(operand))
+                    writer.constant(pool.stringConstant(name.substring(1, name.length() - 1)));
+                else if (Double.parseDouble(name) == 0 && !name.startsWith("-"))
+                    writer.op(DCONST_0);
+                else if (Double.parseDouble(name) == 1)
+                    writer.op(DCONST_1);
+                else
+                    writer.constant(pool.doubleConstant(Double.parseDouble(name)));
+                break;
+            case IntermediateCode.TEMP:
+                if (locals.containsKey(name)) {
+                    writer.op(DLOAD, locals.get(name));
+                    break;
+                }
+                writer.op(GETSTATIC, fields.get(name)); //a temporary of a split method
+                break;
+            default:
+                writer.op(GETSTATIC, fields.get(name));
+                break;
+        }
+    }
+
+    private void store(MethodWriter writer, int operand, HashMap<String, Integer> locals) {
+        String name = code.operandName(operand);
+        if (code.operandKind(operand) == IntermediateCode.TEMP && locals.containsKey(name))
+            writer.op(DSTORE, locals.get(name));
+        else
+            writer.op(PUTSTATIC, fields.get(name));
+    }
+
+    private boolean isString(int operand) {
+        String name = code.operandName(operand);
+        return code.operandKind(operand) == IntermediateCode.CONSTANT? name.startsWith("\"") : name.endsWith("$");
+    }
+
+    private String descriptor(int operand) {
+        return isString(operand)? STRING : "D";
+    }
+
+    /**
+     * run(BufferedReader input, Appendable output): keeps the streams, clears the variables and calls main.
+     */
+    private void compileRun() {
+        MethodWriter writer = new MethodWriter();
+        writer.op(ALOAD, 0);
+        writer.op(PUTSTATIC, pool.field(className, "in", "Ljava/io/BufferedReader;"));
+        writer.op(ALOAD, 1);
+        writer.op(PUTSTATIC, pool.field(className, "out", "Ljava/lang/Appendable;"));
+        writer.op(ICONST_0);
+        writer.op(PUTSTATIC, pool.field(className, "depth", "I"));
+        ArrayList<String> fieldNames = new ArrayList<>(fields.keySet());
+        Collections.sort(fieldNames);
+        for (String name : fieldNames) {
+            if (name.endsWith("$"))
+                writer.constant(pool.stringConstant(""));
+            else
+                writer.op(DCONST_0);
+            writer.op(PUTSTATIC, fields.get(name));
+        }
+        writer.op(INVOKESTATIC, pool.method(className, "main", "()V"));
+        writer.op(RETURN);
+        writer.writeMethod(0x0009, "run", "(Ljava/io/BufferedReader;Ljava/lang/Appendable;)V", 2); //public static
+    }
+
+    /**
+     * Bytecode of one method.
+     */
+    private class MethodWriter {
+        private final boolean chunk; //returns the instruction to continue at
+        private ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private byte patched[];
+
+        MethodWriter() {
+            this(false);
+        }
+
+        MethodWriter(boolean chunk) {
+            this.chunk = chunk;
+        }
+
+        int length() {
+            return bytes.size();
+        }
+
+        void op(int opcode) {
+            bytes.write(opcode);
+        }
+
+        void op(int opcode, int operand) {
+            if (opcode == DLOAD || opcode == DSTORE || opcode == ALOAD) {
+                if (operand < 256) {
+                    bytes.write(opcode);
+                    bytes.write(operand);
+                    return;
+                }
+                bytes.write(WIDE);
+            }
+            bytes.write(opcode);
+            bytes.write(operand >> 8);
+            bytes.write(operand);
+        }
+
+        void jump(int opcode, int offset) {
+            bytes.write(opcode);
+            bytes.write(offset >> 8);
+            bytes.write(offset);
+        }
+
+        void constant(int index) {
+            if (pool.isWide(index)) {
+                op(LDC2_W, index);
+            } else if (index < 256) {
+                bytes.write(LDC);
+                bytes.write(index);
+            } else {
+                op(LDC_W, index);
+            }
+        }
+
+        /**
+         * Returns from the method, out of a chunk that is returning -1.
+         */
+        void ret() {
+            if (chunk) {
+                op(ICONST_M1);
+                op(IRETURN);
+            } else {
+                op(RETURN);
+            }
+        }
+
+        /**
+         * A lookupswitch on the int on the stack to the given offsets in the method.
+         */
+        void lookupSwitch(List<Integer> keys, int targets[], int defaultTarget) {
+            int position = length();
+            op(LOOKUPSWITCH);
+            while (length() % 4 != 0)
+                op(0);
+            writeInt(defaultTarget - position);
+            writeInt(keys.size());
+            for (int key = 0; key < keys.size(); key++) {
+                writeInt(keys.get(key));
+                writeInt(targets[key] - position);
+            }
+        }
+
+        void append(byte code[]) {
+            bytes.write(code, 0, code.length);
+        }
+
+        byte[] code() {
+            return patched == null? bytes.toByteArray() : patched;
+        }
+
+        private void writeInt(int value) {
+            bytes.write(value >> 24);
+            bytes.write(value >> 16);
+            bytes.write(value >> 8);
+            bytes.write(value);
+        }
+
+        void patch(int position, int offset) {
+            if (patched == null)
+                patched = bytes.toByteArray();
+            patched[position] = (byte) (offset >> 8);
+            patched[position + 1] = (byte) offset;
+        }
+
+        void writeMethod(int access, String name, String descriptor, int maxLocals) {
+            byte code[] = code();
+            if (code.length > Short.MAX_VALUE)
+                throw new IllegalArgumentException("Method " + name + " is too large for the bytecode backend");
+            try {
+                DataOutputStream out = new DataOutputStream(methods);
+                out.writeShort(access);
+                out.writeShort(pool.utf8(name));
+                out.writeShort(pool.utf8(descriptor));
+                out.writeShort(1);
+                out.writeShort(pool.utf8("Code"));
+                out.writeInt(12 + code.length);
+                out.writeShort(MAX_STACK);
+                out.writeShort(maxLocals);
+                out.writeInt(code.length);
+                out.write(code);
+                out.writeShort(0); //exception table
+                out.writeShort(0); //attributes
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            methodCount++;
+        }
+    }
+
+    /**
+     * Constant pool entries, each added once.
+     */
+    private static class ConstantPool {
+        private ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private DataOutputStream out = new DataOutputStream(bytes);
+        private HashMap<String, Integer> indices = new HashMap<>();
+        private HashSet<Integer> wide = new HashSet<>();
+        private int count = 1;
+
+        int utf8(String value) {
+            Integer index = indices.get("U" + value);
+            if (index != null)
+                return index;
+            try {
+                out.writeByte(1);
+                out.writeUTF(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return add("U" + value, 1);
+        }
+
+        int classReference(String name) {
+            return reference("C" + name, 7, utf8(name), -1);
+        }
+
+        int stringConstant(String value) {
+            return reference("S" + value, 8, utf8(value), -1);
+        }
+
+        int integerConstant(int value) {
+            Integer index = indices.get("I" + value);
+            if (index != null)
+                return index;
+            try {
+                out.writeByte(3);
+                out.writeInt(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return add("I" + value, 1);
+        }
+
+        int doubleConstant(double value) {
+            Integer index = indices.get("D" + Double.doubleToLongBits(value));
+            if (index != null)
+                return index;
+            try {
+                out.writeByte(6);
+                out.writeDouble(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            index = add("D" + Double.doubleToLongBits(value), 2); //doubles take two entries
+            wide.add(index);
+            return index;
+        }
+
+        int field(String owner, String name, String descriptor) {
+            return reference("F" + owner + "." + name + ":" + descriptor, 9, classReference(owner), nameAndType(name, descriptor));
+        }
+
+        int method(String owner, String name, String descriptor) {
+            return reference("M" + owner + "." + name + descriptor, 10, classReference(owner), nameAndType(name, descriptor));
+        }
+
+        boolean isWide(int index) {
+            return wide.contains(index);
+        }
+
+        void write(DataOutputStream classOut) throws IOException {
+            classOut.writeShort(count);
+            bytes.writeTo(classOut);
+        }
+
+        private int nameAndType(String name, String descriptor) {
+            return reference("N" + name + ":" + descriptor, 12, utf8(name), utf8(descriptor));
+        }
+
+        private int reference(String key, int tag, int first, int second) {
+            Integer index = indices.get(key);
+            if (index != null)
+                return index;
+            try {
+                out.writeByte(tag);
+                out.writeShort(first);
+                if (second >= 0)
+                    out.writeShort(second);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return add(key, 1);
+        }
+
+        private int add(String key, int entries) {
+            if (count + entries > 0xffff)
+                throw new IllegalArgumentException("The program has too many constants for the bytecode backend");
+            int index = count;
+            indices.put(key, index);
+            count += entries;
+            return index;
+        }
+    }
+}
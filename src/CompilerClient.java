@@ -0,0 +1,96 @@
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+
+/**
+ * Client of a CompilerServer on this machine, one connection reused for any number of compiles.
+ * Usage: java CompilerClient port [abstract tree file...] [-O] [-repeat count] [-shutdown]
+ * compiles the files in turn, as successive versions of one program, and prints the semantic report, the intermediate
+ * code, the numbered BASIC and with -O the optimisation report of each, with -repeat also the mean time per compile.
+ */
+public class CompilerClient implements Closeable {
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    public CompilerClient(int port) throws IOException {
+        socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        out.writeInt(CompilerServer.MAGIC);
+    }
+
+    /**
+     * Compiles abstract tree text, returns the semantic report, the intermediate code, the numbered BASIC and, when
+     * optimising, the optimisation report. A program the server fails on throws IllegalArgumentException with its message.
+     */
+    public String[] compile(byte tree[], boolean optimize) throws IOException {
+        CompilerServer.writeFrame(out, new byte[]{CompilerServer.COMPILE, optimize? CompilerServer.OPTIMIZE : 0});
+        CompilerServer.writeFrame(out, tree);
+        out.flush();
+        byte status[] = CompilerServer.readFrame(in);
+        if (status.length != 1 || status[0] != CompilerServer.OK)
+            throw new IllegalArgumentException(new String(CompilerServer.readFrame(in), StandardCharsets.UTF_8));
+        String results[] = new String[optimize? 4 : 3];
+        for (int a = 0; a < results.length; a++)
+            results[a] = new String(CompilerServer.readFrame(in), StandardCharsets.UTF_8);
+        return results;
+    }
+
+    /**
+     * Asks the server to stop accepting connections.
+     */
+    public void shutdown() throws IOException {
+        CompilerServer.writeFrame(out, new byte[]{CompilerServer.SHUTDOWN, 0});
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    public static void main(String strings[]) throws IOException {
+        int port = Integer.parseInt(strings[0]);
+        ArrayList<String> fileNames = new ArrayList<>();
+        boolean optimize = false;
+        boolean shutdown = false;
+        int repeat = 1;
+        for (int a = 1; a < strings.length; a++) {
+            if (strings[a].equals("-O"))
+                optimize = true;
+            else if (strings[a].equals("-shutdown"))
+                shutdown = true;
+            else if (strings[a].equals("-repeat") && a + 1 < strings.length)
+                repeat = Integer.parseInt(strings[++a]);
+            else
+                fileNames.add(strings[a]);
+        }
+        try (CompilerClient client = new CompilerClient(port)) {
+            for (String fileName : fileNames) {
+                byte tree[] = Files.readAllBytes(Paths.get(fileName));
+                String results[] = null;
+                long start = System.nanoTime();
+                try {
+                    for (int a = 0; a < repeat; a++)
+                        results = client.compile(tree, optimize);
+                } catch (IllegalArgumentException e) {
+                    System.out.println(e.getMessage());
+                    continue;
+                }
+                long elapsed = System.nanoTime() - start;
+                for (String result : results)
+                    System.out.println(result);
+                if (repeat > 1)
+                    System.out.println(String.format("%d compiles, %.3f ms each", repeat, elapsed / 1e6 / repeat));
+            }
+            if (shutdown)
+                client.shutdown();
+        }
+    }
+}
@@ -0,0 +1,151 @@
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Resident compiler answering requests on a loopback socket, so repeated compiles run on a warm JIT.
+ * Every frame is an int length followed by that many bytes. A connection carries any number of requests, one at a time:
+ * a request is a frame holding the kind and its flags, then for COMPILE a frame of abstract tree text.
+ * The answer is a frame holding the status, then for OK the semantic report, the intermediate code and the numbered
+ * BASIC as three frames of UTF-8 text, followed by the optimisation report when the request asked to optimise,
+ * and for ERROR one frame with the message. Any failure of a compile, a stack overflow included, is answered as an ERROR.
+ * Connections are served concurrently, each on a thread of its own from a fixed pool. Once every thread has a connection
+ * no more are accepted, further clients wait in the listen backlog until one closes. Every connection compiles
+ * incrementally against the last program it compiled, so a client sending successive edits of a program only pays for what changed.
+ */
+public class CompilerServer {
+    static final int MAGIC = 0x53504C43;
+    static final byte COMPILE = 0;
+    static final byte SHUTDOWN = 1;
+    static final byte OPTIMIZE = 1; //flag of a compile request
+    static final byte OK = 0;
+    static final byte ERROR = 1;
+    private static final int MAX_FRAME = 1 << 28;
+    private static final int CONNECTIONS = 16; //served at once by default
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService pool;
+    private final Semaphore free; //connections that may still be accepted
+    private volatile boolean running = true;
+
+    /**
+     * Listens on the loopback address, port 0 picks a free port.
+     */
+    public CompilerServer(int port) throws IOException {
+        this(port, CONNECTIONS);
+    }
+
+    /**
+     * Listens on the loopback address serving at most connections clients at once.
+     */
+    public CompilerServer(int port, int connections) throws IOException {
+        serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        pool = Executors.newFixedThreadPool(Math.max(connections, 1));
+        free = new Semaphore(Math.max(connections, 1));
+    }
+
+    public int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Accepts connections until a shutdown request arrives.
+     */
+    public void serve() throws IOException {
+        try {
+            while (running) {
+                free.acquireUninterruptibly();
+                final Socket socket;
+                try {
+                    socket = serverSocket.accept();
+                } catch (SocketException e) { //closed by a shutdown request
+                    free.release();
+                    if (running)
+                        throw e;
+                    break;
+                }
+                pool.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            serve(socket);
+                        } finally {
+                            free.release();
+                        }
+                    }
+                });
+            }
+        } finally {
+            pool.shutdown();
+            serverSocket.close();
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket connection = socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()))) {
+            connection.setTcpNoDelay(true);
+            if (in.readInt() != MAGIC)
+                return;
+            IncrementalCompiler compiler = new IncrementalCompiler();
+            while (true) {
+                byte header[];
+                try {
+                    header = readFrame(in);
+                } catch (EOFException e) { //the client is done
+                    return;
+                }
+                if (header.length != 2)
+                    return;
+                if (header[0] == SHUTDOWN) {
+                    running = false;
+                    serverSocket.close();
+                    return;
+                }
+                byte tree[] = readFrame(in);
+                boolean optimize = (header[1] & OPTIMIZE) != 0;
+                byte results[][]; //the frames of the answer, made whole before any is written
+                try {
+                    compiler.compile(new AbstractTree(new ByteCharSequence(ByteBuffer.wrap(tree))), optimize);
+                    Translator translator = compiler.getTranslator();
+                    results = new byte[optimize? 5 : 4][];
+                    results[0] = new byte[]{OK};
+                    results[1] = compiler.getSemanticTable().toString().getBytes(StandardCharsets.UTF_8);
+                    results[2] = translator.getIntermediateCode().getBytes(StandardCharsets.UTF_8);
+                    results[3] = translator.getFinalIntermediateCode().getBytes(StandardCharsets.UTF_8);
+                    if (optimize)
+                        results[4] = translator.getOptimizationReport().getBytes(StandardCharsets.UTF_8);
+                } catch (Throwable e) { //a stack overflow or any other failure answers this request only
+                    results = new byte[][]{{ERROR}, String.valueOf(e).getBytes(StandardCharsets.UTF_8)};
+                }
+                for (byte result[] : results)
+                    writeFrame(out, result);
+                out.flush();
+            }
+        } catch (IOException e) {
+            //the connection broke, the client sees it
+        }
+    }
+
+    static byte[] readFrame(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_FRAME)
+            throw new IOException("Bad frame length " + length);
+        byte frame[] = new byte[length];
+        in.readFully(frame);
+        return frame;
+    }
+
+    static void writeFrame(DataOutputStream out, byte frame[]) throws IOException {
+        out.writeInt(frame.length);
+        out.write(frame);
+    }
+}
@@ -0,0 +1,233 @@
+import java.util.Arrays;
+
+/**
+ * Finds the expressions of a checked tree whose value is known at compile time.
+ * Literals are constants, operators over constants are evaluated, and a variable read is a constant when the flow data
+ * gives it a value and the variable is assigned in exactly one place, from a constant. The flow data of a read only names
+ * one assignment reaching it, so a variable assigned in more than one place is never propagated.
+ * Numbers are folded while they stay in int range, booleans are 1 and 0 as the translator stores them.
+ */
+public class ConstantFolder {
+    public static final byte NONE = 0;
+    public static final byte NUMBER = 1;
+    public static final byte BOOLEAN = 2;
+    public static final byte STRING = 3;
+
+    private static final int MANY = -2; //assigned in more than one place
+
+    private final AbstractTree tree;
+    private final SemanticNode table[];
+    private final PhaseTimer timer;
+    private byte kinds[];
+    private long numbers[];
+    private String strings[];
+    private int assignments[]; //value node of the only assignment of each declaration, NONE or MANY
+    private boolean changed;
+
+    public ConstantFolder(AbstractTree tree, SemanticTable semanticTable) {
+        this(tree, semanticTable, new PhaseTimer());
+    }
+
+    /**
+     * Folds the tree, counting the visits of its walks in timer.
+     */
+    public ConstantFolder(AbstractTree tree, SemanticTable semanticTable, PhaseTimer timer) {
+        this.tree = tree;
+        this.timer = timer;
+        this.table = semanticTable.table;
+        kinds = new byte[tree.size()];
+        numbers = new long[tree.size()];
+        strings = new String[tree.size()];
+        assignments = new int[tree.size()];
+        Arrays.fill(assignments, AbstractTree.NONE);
+        new AssignmentVisitor().walk(tree.root);
+        FoldVisitor foldVisitor = new FoldVisitor();
+        do { //a read folds once the assignment it depends on has, which may come later in the tree
+            changed = false;
+            foldVisitor.walk(tree.root);
+        } while (changed);
+    }
+
+    public byte kind(int abstractNode) {
+        return kinds[abstractNode];
+    }
+
+    public boolean isConstant(int abstractNode) {
+        return kinds[abstractNode] != NONE;
+    }
+
+    /**
+     * Whether the node is a constant boolean that is true.
+     */
+    public boolean isTrue(int abstractNode) {
+        return kinds[abstractNode] == BOOLEAN && numbers[abstractNode] != 0;
+    }
+
+    /**
+     * The constant as a BASIC literal.
+     */
+    public String literal(int abstractNode) {
+        return kinds[abstractNode] == STRING? strings[abstractNode] : Long.toString(numbers[abstractNode]);
+    }
+
+    /**
+     * Records the value node of every assignment, reads from input and for loops count as assignments with no constant value.
+     */
+    private class AssignmentVisitor extends TreeVisitor {
+        AssignmentVisitor() {
+            super(ConstantFolder.this.tree, timer);
+        }
+
+        @Override
+        protected void exit(int abstractNode, int parent) {
+            switch (tree.type(abstractNode)) {
+                case Assign:
+                    assign(tree.child(abstractNode, 0), tree.child(abstractNode, 1));
+                    break;
+                case Input:
+                    assign(tree.child(abstractNode, 0), AbstractTree.NONE);
+                    break;
+            }
+        }
+
+        private void assign(int var, int value) {
+            Integer declaration = table[var].usageSource;
+            if (declaration == null)
+                return;
+            assignments[declaration] = assignments[declaration] == AbstractTree.NONE && value != AbstractTree.NONE? value : MANY;
+        }
+    }
+
+    private class FoldVisitor extends TreeVisitor {
+        FoldVisitor() {
+            super(ConstantFolder.this.tree, timer);
+        }
+
+        @Override
+        protected void exit(int abstractNode, int parent) {
+            if (kinds[abstractNode] != NONE || table[abstractNode] == null || table[abstractNode].nameType == NameType.E)
+                return;
+            switch (tree.type(abstractNode)) {
+                case Number:
+                    try {
+                        setNumber(abstractNode, Long.parseLong(tree.val(abstractNode)));
+                    } catch (NumberFormatException e) {
+                        //not an integer literal, left to the BASIC runtime
+                    }
+                    break;
+                case String:
+                    set(abstractNode, STRING, 0, tree.val(abstractNode));
+                    break;
+                case True:
+                    set(abstractNode, BOOLEAN, 1, null);
+                    break;
+                case False:
+                    set(abstractNode, BOOLEAN, 0, null);
+                    break;
+                case Var:
+                    Integer declaration = table[abstractNode].usageSource;
+                    if (declaration != null && table[abstractNode].flowStart != null && isRead(abstractNode, parent)
+                            && assignments[declaration] >= 0 && kinds[assignments[declaration]] != NONE)
+                        copy(abstractNode, assignments[declaration]);
+                    break;
+                case AddExpr:
+                case SubExpr:
+                case MultExpr:
+                    foldArithmetic(abstractNode);
+                    break;
+                case LessExpr:
+                case GreaterExpr:
+                case EqExpr:
+                    foldComparison(abstractNode);
+                    break;
+                case AndExpr:
+                case OrExpr:
+                    int left = tree.child(abstractNode, 0);
+                    int right = tree.child(abstractNode, 1);
+                    if (kinds[left] == BOOLEAN && kinds[right] == BOOLEAN) {
+                        boolean value = tree.type(abstractNode) == AbstractNodeType.AndExpr?
+                                numbers[left] != 0 && numbers[right] != 0 : numbers[left] != 0 || numbers[right] != 0;
+                        set(abstractNode, BOOLEAN, value? 1 : 0, null);
+                    }
+                    break;
+                case NotExpr:
+                    int operand = tree.child(abstractNode, 0);
+                    if (kinds[operand] == BOOLEAN)
+                        set(abstractNode, BOOLEAN, numbers[operand] != 0? 0 : 1, null);
+                    break;
+            }
+        }
+
+        /**
+         * Whether the variable is read rather than assigned by its parent.
+         */
+        private boolean isRead(int var, int parent) {
+            switch (tree.type(parent)) {
+                case Assign:
+                    return tree.child(parent, 0) != var;
+                case Input:
+                    return false;
+                default:
+                    return true;
+            }
+        }
+
+        private void foldArithmetic(int abstractNode) {
+            int left = tree.child(abstractNode, 0);
+            int right = tree.child(abstractNode, 1);
+            if (kinds[left] != NUMBER || kinds[right] != NUMBER)
+                return;
+            switch (tree.type(abstractNode)) {
+                case AddExpr:
+                    setNumber(abstractNode, numbers[left] + numbers[right]);
+                    break;
+                case SubExpr:
+                    setNumber(abstractNode, numbers[left] - numbers[right]);
+                    break;
+                default:
+                    setNumber(abstractNode, numbers[left] * numbers[right]);
+                    break;
+            }
+        }
+
+        private void foldComparison(int abstractNode) {
+            int left = tree.child(abstractNode, 0);
+            int right = tree.child(abstractNode, 1);
+            if (kinds[left] == NONE || kinds[left] != kinds[right])
+                return;
+            boolean value;
+            switch (tree.type(abstractNode)) {
+                case EqExpr:
+                    value = kinds[left] == STRING? strings[left].equals(strings[right]) : numbers[left] == numbers[right];
+                    break;
+                case LessExpr:
+                    if (kinds[left] != NUMBER)
+                        return;
+                    value = numbers[left] < numbers[right];
+                    break;
+                default:
+                    if (kinds[left] != NUMBER)
+                        return;
+                    value = numbers[left] > numbers[right];
+                    break;
+            }
+            set(abstractNode, BOOLEAN, value? 1 : 0, null);
+        }
+
+        private void setNumber(int abstractNode, long value) {
+            if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) //beyond that the BASIC runtime may round
+                set(abstractNode, NUMBER, value, null);
+        }
+
+        private void copy(int abstractNode, int source) {
+            set(abstractNode, kinds[source], numbers[source], strings[source]);
+        }
+
+        private void set(int abstractNode, byte kind, long number, String string) {
+            kinds[abstractNode] = kind;
+            numbers[abstractNode] = number;
+            strings[abstractNode] = string;
+            changed = true;
+        }
+    }
+}
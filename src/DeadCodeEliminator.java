@@ -0,0 +1,182 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Finds the statements of a checked tree that need no code: statements the flow analysis never reaches, such as those
+ * after a halt, procedures no reached call leads to from the main program, and assignments to variables that are never read.
+ * Removing an assignment can leave the variables it reads unread in turn, so dead assignments are found with a worklist.
+ */
+public class DeadCodeEliminator {
+    private final AbstractTree tree;
+    private final SemanticNode table[];
+    private final PhaseTimer timer;
+    private boolean dead[];
+    private boolean liveProcedures[];
+    private int reads[]; //reads of each declaration in live code
+    private List<ArrayList<Integer>> assignments; //live assignments to each declaration, null where there are none
+    private int deadStatements = 0;
+    private int deadProcedures = 0;
+    private int deadAssignments = 0;
+
+    public DeadCodeEliminator(AbstractTree tree, SemanticTable semanticTable) {
+        this(tree, semanticTable, new PhaseTimer());
+    }
+
+    /**
+     * Finds the dead code, counting the visits of the walks in timer.
+     */
+    public DeadCodeEliminator(AbstractTree tree, SemanticTable semanticTable, PhaseTimer timer) {
+        this.tree = tree;
+        this.timer = timer;
+        this.table = semanticTable.table;
+        dead = new boolean[tree.size()];
+        liveProcedures = new boolean[tree.size()];
+        reads = new int[tree.size()];
+        assignments = new ArrayList<>(Collections.nCopies(tree.size(), (ArrayList<Integer>) null));
+
+        ArrayDeque<Integer> procedures = new ArrayDeque<>();
+        LiveVisitor liveVisitor = new LiveVisitor(procedures);
+        liveVisitor.walk(tree.child(tree.root, 0)); //the main code
+        while (!procedures.isEmpty())
+            liveVisitor.walk(tree.child(tree.child(procedures.pop(), 0), 0)); //the code of a called procedure
+        new ProcedureVisitor().walk(tree.root);
+        removeUnreadAssignments();
+    }
+
+    /**
+     * Whether the statement, or procedure definition, is left out of the translation.
+     */
+    public boolean isDead(int abstractNode) {
+        return dead[abstractNode];
+    }
+
+    /**
+     * Statements removed for each reason, one reason per line.
+     */
+    public String report() {
+        return String.format("%-16s %d removed%n%-16s %d removed%n%-16s %d removed%n",
+                "not reached", deadStatements, "never called", deadProcedures, "never read", deadAssignments);
+    }
+
+    /**
+     * Marks the statements of a code block that are not reached as dead, counts the variable reads and records
+     * the assignments of the statements that are, and queues the procedures they call.
+     */
+    private class LiveVisitor extends TreeVisitor {
+        private final ArrayDeque<Integer> procedures;
+
+        LiveVisitor(ArrayDeque<Integer> procedures) {
+            super(DeadCodeEliminator.this.tree, timer);
+            this.procedures = procedures;
+        }
+
+        @Override
+        protected boolean enter(int abstractNode, int parent) {
+            if (parent != AbstractTree.NONE && tree.type(parent) == AbstractNodeType.Code && !table[abstractNode].reachable) {
+                dead[abstractNode] = true;
+                deadStatements++;
+                return false;
+            }
+            switch (tree.type(abstractNode)) {
+                case ProcDefs: //procedures are walked when a call reaches them
+                    return false;
+                case Call:
+                    Integer procedure = table[abstractNode].usageSource;
+                    if (procedure != null && tree.type(procedure) == AbstractNodeType.Proc && !liveProcedures[procedure]) {
+                        liveProcedures[procedure] = true;
+                        procedures.push(procedure);
+                    }
+                    break;
+                case Var:
+                    Integer declaration = table[abstractNode].usageSource;
+                    if (declaration != null && isRead(abstractNode, parent))
+                        reads[declaration]++;
+                    break;
+                case Assign:
+                    declaration = table[tree.child(abstractNode, 0)].usageSource;
+                    if (declaration != null && tree.type(parent) == AbstractNodeType.Code) { //for loop assignments stay
+                        if (assignments.get(declaration) == null)
+                            assignments.set(declaration, new ArrayList<Integer>());
+                        assignments.get(declaration).add(abstractNode);
+                    }
+                    break;
+            }
+            return true;
+        }
+
+        private boolean isRead(int var, int parent) {
+            switch (tree.type(parent)) {
+                case Assign:
+                    return tree.child(parent, 0) != var;
+                case Input:
+                    return false;
+                default:
+                    return true;
+            }
+        }
+    }
+
+    /**
+     * Marks the procedure definitions no live call reaches as dead.
+     */
+    private class ProcedureVisitor extends TreeVisitor {
+        ProcedureVisitor() {
+            super(DeadCodeEliminator.this.tree, timer);
+        }
+
+        @Override
+        protected boolean enter(int abstractNode, int parent) {
+            switch (tree.type(abstractNode)) {
+                case Proc:
+                    if (!liveProcedures[abstractNode]) {
+                        dead[abstractNode] = true;
+                        deadProcedures++;
+                        return false;
+                    }
+                    return true;
+                case Code: //code holds no procedure definitions
+                    return false;
+                default:
+                    return true;
+            }
+        }
+    }
+
+    private void removeUnreadAssignments() {
+        ArrayDeque<Integer> unread = new ArrayDeque<>();
+        for (int declaration = 0; declaration < tree.size(); declaration++)
+            if (assignments.get(declaration) != null && reads[declaration] == 0)
+                unread.push(declaration);
+        ReadVisitor readVisitor = new ReadVisitor(unread);
+        while (!unread.isEmpty()) {
+            int declaration = unread.pop();
+            for (int assignment : assignments.get(declaration)) {
+                dead[assignment] = true;
+                deadAssignments++;
+                readVisitor.walk(tree.child(assignment, 1)); //the variables the value was computed from lose a read
+            }
+            assignments.get(declaration).clear();
+        }
+    }
+
+    private class ReadVisitor extends TreeVisitor {
+        private final ArrayDeque<Integer> unread;
+
+        ReadVisitor(ArrayDeque<Integer> unread) {
+            super(DeadCodeEliminator.this.tree, timer);
+            this.unread = unread;
+        }
+
+        @Override
+        protected boolean enter(int abstractNode, int parent) {
+            if (tree.type(abstractNode) == AbstractNodeType.Var) {
+                Integer declaration = table[abstractNode].usageSource;
+                if (declaration != null && --reads[declaration] == 0 && assignments.get(declaration) != null && !assignments.get(declaration).isEmpty())
+                    unread.push(declaration);
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+import java.util.ArrayList;
+
+/**
+ * Scoped table of where the value of each variable flows from.
+ * Variables are keyed by the id of their declaration node, values are node ids.
+ * Assignments go into the innermost scope and are forgotten when the scope is popped.
+ *
+ * The table is a persistent 32-ary trie over the variable id: an assignment copies only the path to its variable,
+ * so a scope or a branch keeps the root it started from and forking is constant time. The variables assigned in a scope
+ * are found by comparing the current root with the saved one, skipping every subtree the two still share.
+ */
+public class FlowEnvironment {
+    public static final int NO_VALUE = -1;
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    public interface Merger {
+        /**
+         * Value a variable assigned in the then branch has after the cond statement, NO_VALUE to leave it unassigned.
+         */
+        int merge(int variable, int thenFlowStart, int elseFlowStart);
+    }
+
+    public interface Visitor {
+        void visit(int variable, int flowStart);
+    }
+
+    /**
+     * Trie node, only the present slots are stored. Nodes at shift 0 hold values, the others hold child nodes.
+     * Nodes are never changed once they are part of a trie.
+     */
+    private static final class Node {
+        final int bitmap;
+        final Node children[];
+        final int values[];
+
+        Node(int bitmap, Node children[], int values[]) {
+            this.bitmap = bitmap;
+            this.children = children;
+            this.values = values;
+        }
+    }
+
+    private final int rootShift;
+    private Node root = null;
+    private ArrayList<Node> scopes = new ArrayList<>(); //root at the start of every open scope
+
+    /**
+     * An empty table for variable ids below capacity.
+     */
+    public FlowEnvironment(int capacity) {
+        int shift = 0;
+        while (shift < 30 && (capacity - 1) >>> (shift + BITS) != 0)
+            shift += BITS;
+        rootShift = shift;
+        push();
+    }
+
+    private FlowEnvironment(FlowEnvironment parent) {
+        rootShift = parent.rootShift;
+        root = parent.root;
+    }
+
+    public int get(int variable) {
+        Node node = root;
+        for (int shift = rootShift; node != null; shift -= BITS) {
+            int bit = 1 << ((variable >>> shift) & MASK);
+            if ((node.bitmap & bit) == 0)
+                return NO_VALUE;
+            int index = Integer.bitCount(node.bitmap & (bit - 1));
+            if (shift == 0)
+                return node.values[index];
+            node = node.children[index];
+        }
+        return NO_VALUE;
+    }
+
+    public void put(int variable, int flowStart) {
+        if (variable < 0 || (variable >>> rootShift) > MASK)
+            throw new IllegalArgumentException("Variable " + variable + " is outside the flow table");
+        root = put(root, rootShift, variable, flowStart);
+    }
+
+    private static Node put(Node node, int shift, int variable, int flowStart) {
+        int bit = 1 << ((variable >>> shift) & MASK);
+        int bitmap = node == null? 0 : node.bitmap;
+        int index = Integer.bitCount(bitmap & (bit - 1));
+        boolean present = (bitmap & bit) != 0;
+        int count = Integer.bitCount(bitmap);
+
+        if (shift == 0) {
+            if (present && node.values[index] == flowStart)
+                return node; //unchanged, keep sharing the node
+            int values[] = new int[present? count : count + 1];
+            if (node != null) {
+                System.arraycopy(node.values, 0, values, 0, index);
+                System.arraycopy(node.values, present? index + 1 : index, values, index + 1, count - (present? index + 1 : index));
+            }
+            values[index] = flowStart;
+            return new Node(bitmap | bit, null, values);
+        }
+
+        Node child = put(present? node.children[index] : null, shift - BITS, variable, flowStart);
+        if (present && child == node.children[index])
+            return node;
+        Node children[] = new Node[present? count : count + 1];
+        if (node != null) {
+            System.arraycopy(node.children, 0, children, 0, index);
+            System.arraycopy(node.children, present? index + 1 : index, children, index + 1, count - (present? index + 1 : index));
+        }
+        children[index] = child;
+        return new Node(bitmap | bit, children, null);
+    }
+
+    public void push() {
+        scopes.add(root);
+    }
+
+    public void pop() {
+        root = scopes.remove(scopes.size() - 1);
+    }
+
+    /**
+     * A branch of this environment with its own innermost scope, assignments in the branch do not show up here.
+     */
+    public FlowEnvironment fork() {
+        FlowEnvironment branch = new FlowEnvironment(this);
+        branch.push();
+        return branch;
+    }
+
+    /**
+     * Visits the variables assigned a different value in the innermost scope.
+     */
+    public void forEachInScope(Visitor visitor) {
+        diff(root, scopes.get(scopes.size() - 1), rootShift, 0, visitor);
+    }
+
+    private static void diff(Node node, Node base, int shift, int prefix, Visitor visitor) {
+        if (node == base || node == null)
+            return;
+        int bitmap = node.bitmap;
+        for (int index = 0; bitmap != 0; index++) {
+            int bit = Integer.lowestOneBit(bitmap);
+            bitmap &= ~bit;
+            int slot = Integer.numberOfTrailingZeros(bit);
+            boolean inBase = base != null && (base.bitmap & bit) != 0;
+            int baseIndex = inBase? Integer.bitCount(base.bitmap & (bit - 1)) : 0;
+            if (shift == 0) {
+                if (!inBase || base.values[baseIndex] != node.values[index])
+                    visitor.visit(prefix | slot, node.values[index]);
+            } else {
+                diff(node.children[index], inBase? base.children[baseIndex] : null, shift - BITS, prefix | (slot << shift), visitor);
+            }
+        }
+    }
+
+    /**
+     * Carries the variables assigned in thenBranch over into this environment, where merger decides on their values.
+     * Both branches must have been forked from this environment.
+     */
+    public void mergeBranches(FlowEnvironment thenBranch, final FlowEnvironment elseBranch, final Merger merger) {
+        thenBranch.forEachInScope(new Visitor() {
+            @Override
+            public void visit(int variable, int flowStart) {
+                int merged = merger.merge(variable, flowStart, elseBranch.get(variable));
+                if (merged != NO_VALUE)
+                    put(variable, merged);
+            }
+        });
+    }
+}
@@ -0,0 +1,41 @@
+/**
+ * Compiles successive versions of one program, reusing the flow summaries of the procedures an edit left alone.
+ * Every version is paired with the one before by a TreeMatcher over structural hashes taken before renaming.
+ * A procedure keeps its summary when its subtree, the declarations its names refer to and the summaries of the
+ * procedures it calls are unchanged, so only edited procedures and their callers are analysed again.
+ * The result is always the same as compiling the version on its own.
+ */
+public class IncrementalCompiler {
+    private AbstractTree tree = null; //the last version compiled
+    private long hashes[];
+    private SemanticTable semanticTable = null;
+    private Translator translator = null;
+
+    public void compile(AbstractTree tree, boolean optimize) {
+        compile(tree, optimize, new PhaseTimer());
+    }
+
+    /**
+     * Compiles the next version, timing the passes in timer. A version that fails leaves the last one to edit from.
+     */
+    public void compile(AbstractTree tree, boolean optimize, PhaseTimer timer) {
+        timer.start("match");
+        long hashes[] = TreeMatcher.hash(tree, timer);
+        TreeMatcher matcher = this.tree == null? null : new TreeMatcher(this.tree, this.hashes, tree, hashes);
+        timer.stop();
+        SemanticTable semanticTable = new SemanticTable(tree, timer, this.semanticTable, matcher);
+        Translator translator = new Translator(tree, semanticTable, optimize, timer);
+        this.tree = tree;
+        this.hashes = hashes;
+        this.semanticTable = semanticTable;
+        this.translator = translator;
+    }
+
+    public SemanticTable getSemanticTable() {
+        return semanticTable;
+    }
+
+    public Translator getTranslator() {
+        return translator;
+    }
+}
@@ -0,0 +1,448 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Three address intermediate code stored as parallel arrays, one entry per instruction or label definition.
+ * An instruction has an opcode, an operator and up to three operand ids (result, left, right) and a target label id.
+ * Operands are program variables, temporaries or constants, labels mark the start of basic blocks and are referenced by id.
+ * BASIC text is rendered from the instructions, jump targets are resolved to line numbers when the numbered code is written.
+ */
+public class IntermediateCode {
+    public static final int NONE = -1;
+
+    public static final byte VARIABLE = 0;
+    public static final byte TEMP = 1;
+    public static final byte CONSTANT = 2;
+
+    private static final Opcode OPCODES[] = Opcode.values();
+    private static final Operator OPERATORS[] = Operator.values();
+    private static final int DUMP_MAGIC = 0x4D445249; //"IRDM"
+    private static final int DUMP_VERSION = 1;
+
+    private byte opcodes[];
+    private byte operators[];
+    private int results[];
+    private int lefts[];
+    private int rights[];
+    private int targets[];
+    private int count = 0;
+
+    private ArrayList<String> operandNames = new ArrayList<>();
+    private byte operandKinds[] = new byte[64];
+    private HashMap<String, Integer> constants = new HashMap<>();
+
+    private ArrayList<String> labelNames = new ArrayList<>();
+    private HashMap<String, Integer> functionLabels = new HashMap<>();
+    private int labelCount = 0; //numbered labels, procedure labels are named after the procedure
+
+    public IntermediateCode(int expectedInstructions) {
+        int capacity = Math.max(expectedInstructions, 16);
+        opcodes = new byte[capacity];
+        operators = new byte[capacity];
+        results = new int[capacity];
+        lefts = new int[capacity];
+        rights = new int[capacity];
+        targets = new int[capacity];
+    }
+
+    public int newLabel() {
+        labelNames.add("%" + labelCount++);
+        return labelNames.size() - 1;
+    }
+
+    /**
+     * The label of the named procedure, the same id for every call and the definition.
+     */
+    public int functionLabel(String functionName) {
+        Integer label = functionLabels.get(functionName);
+        if (label == null) {
+            labelNames.add("%" + functionName);
+            label = labelNames.size() - 1;
+            functionLabels.put(functionName, label);
+        }
+        return label;
+    }
+
+    public int variable(String name) {
+        return addOperand(name, VARIABLE);
+    }
+
+    public int temp(String name) {
+        return addOperand(name, TEMP);
+    }
+
+    /**
+     * A constant operand, equal literals share an id.
+     */
+    public int constant(String literal) {
+        Integer operand = constants.get(literal);
+        if (operand == null) {
+            operand = addOperand(literal, CONSTANT);
+            constants.put(literal, operand);
+        }
+        return operand;
+    }
+
+    public void label(int label) {
+        add(Opcode.LABEL, Operator.NONE, NONE, NONE, NONE, label);
+    }
+
+    public void let(int result, int operand) {
+        add(Opcode.LET, Operator.NONE, result, operand, NONE, NONE);
+    }
+
+    public void let(int result, int left, Operator operator, int right) {
+        add(Opcode.LET, operator, result, left, right, NONE);
+    }
+
+    /**
+     * Jumps to target if operand is true.
+     */
+    public void ifGoto(int operand, int target) {
+        add(Opcode.IF, Operator.NONE, NONE, operand, NONE, target);
+    }
+
+    public void ifGoto(int left, Operator operator, int right, int target) {
+        add(Opcode.IF, operator, NONE, left, right, target);
+    }
+
+    public void goTo(int target) {
+        add(Opcode.GOTO, Operator.NONE, NONE, NONE, NONE, target);
+    }
+
+    public void goSub(int target) {
+        add(Opcode.GOSUB, Operator.NONE, NONE, NONE, NONE, target);
+    }
+
+    public void ret() {
+        add(Opcode.RETURN, Operator.NONE, NONE, NONE, NONE, NONE);
+    }
+
+    public void input(int result) {
+        add(Opcode.INPUT, Operator.NONE, result, NONE, NONE, NONE);
+    }
+
+    public void print(int operand) {
+        add(Opcode.PRINT, Operator.NONE, NONE, operand, NONE, NONE);
+    }
+
+    public void end() {
+        add(Opcode.END, Operator.NONE, NONE, NONE, NONE, NONE);
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public Opcode opcode(int instruction) {
+        return OPCODES[opcodes[instruction]];
+    }
+
+    public Operator operator(int instruction) {
+        return OPERATORS[operators[instruction]];
+    }
+
+    public int result(int instruction) {
+        return results[instruction];
+    }
+
+    public int left(int instruction) {
+        return lefts[instruction];
+    }
+
+    public int right(int instruction) {
+        return rights[instruction];
+    }
+
+    /**
+     * Label jumped to, or the label defined by a LABEL entry.
+     */
+    public int target(int instruction) {
+        return targets[instruction];
+    }
+
+    /**
+     * Replaces an instruction in place.
+     */
+    public void set(int instruction, Opcode opcode, Operator operator, int result, int left, int right, int target) {
+        opcodes[instruction] = (byte) opcode.ordinal();
+        operators[instruction] = (byte) operator.ordinal();
+        results[instruction] = result;
+        lefts[instruction] = left;
+        rights[instruction] = right;
+        targets[instruction] = target;
+    }
+
+    /**
+     * Drops the flagged instructions, the others keep their order.
+     */
+    public void removeInstructions(boolean removed[]) {
+        int kept = 0;
+        for (int a = 0; a < count; a++) {
+            if (removed[a])
+                continue;
+            opcodes[kept] = opcodes[a];
+            operators[kept] = operators[a];
+            results[kept] = results[a];
+            lefts[kept] = lefts[a];
+            rights[kept] = rights[a];
+            targets[kept] = targets[a];
+            kept++;
+        }
+        count = kept;
+    }
+
+    public int operandCount() {
+        return operandNames.size();
+    }
+
+    public String operandName(int operand) {
+        return operandNames.get(operand);
+    }
+
+    public void setOperandName(int operand, String name) {
+        operandNames.set(operand, name);
+    }
+
+    public byte operandKind(int operand) {
+        return operandKinds[operand];
+    }
+
+    public int labelCount() {
+        return labelNames.size();
+    }
+
+    public String labelName(int label) {
+        return labelNames.get(label);
+    }
+
+    /**
+     * Writes the code with symbolic labels, every label definition on a line of its own.
+     */
+    public void writeIntermediateCode(Appendable out) throws IOException {
+        for (int a = 0; a < count; a++) {
+            if (opcodes[a] == Opcode.LABEL.ordinal())
+                out.append(labelNames.get(targets[a]));
+            else
+                writeInstruction(out, a, targets[a] == NONE? null : labelNames.get(targets[a]));
+            out.append("\r\n");
+        }
+    }
+
+    /**
+     * Writes the numbered code. The first pass gives every label the number of the instruction following it,
+     * the second writes the instructions with their jump targets replaced by those numbers.
+     * A label that is never defined, such as a call of something that is not a procedure, is written by name.
+     */
+    public void writeNumberedCode(Appendable out) throws IOException {
+        int lines[] = new int[labelNames.size()];
+        Arrays.fill(lines, NONE);
+        int line = 0;
+        for (int a = 0; a < count; a++) {
+            if (opcodes[a] == Opcode.LABEL.ordinal())
+                lines[targets[a]] = line;
+            else
+                line++;
+        }
+
+        line = 0;
+        for (int a = 0; a < count; a++) {
+            if (opcodes[a] == Opcode.LABEL.ordinal())
+                continue;
+            out.append(Integer.toString(line++)).append(' ');
+            int target = targets[a];
+            writeInstruction(out, a, target == NONE? null : lines[target] == NONE? labelNames.get(target) : Integer.toString(lines[target]));
+            out.append("\r\n");
+        }
+    }
+
+    private void writeInstruction(Appendable out, int instruction, String target) throws IOException {
+        Operator operator = OPERATORS[operators[instruction]];
+        switch (OPCODES[opcodes[instruction]]) {
+            case LET:
+                out.append("LET ").append(operandNames.get(results[instruction])).append(" = ").append(operandNames.get(lefts[instruction]));
+                if (operator != Operator.NONE)
+                    out.append(' ').append(operator.symbol).append(' ').append(operandNames.get(rights[instruction]));
+                break;
+            case IF:
+                out.append("IF ").append(operandNames.get(lefts[instruction]));
+                if (operator != Operator.NONE)
+                    out.append(' ').append(operator.symbol).append(' ').append(operandNames.get(rights[instruction]));
+                out.append(" THEN GOTO ").append(target);
+                break;
+            case GOTO:
+                out.append("GOTO ").append(target);
+                break;
+            case GOSUB:
+                out.append("GOSUB ").append(target);
+                break;
+            case RETURN:
+                out.append("RETURN");
+                break;
+            case INPUT:
+                out.append("INPUT ").append(operandNames.get(results[instruction]));
+                break;
+            case PRINT:
+                out.append("PRINT ").append(operandNames.get(lefts[instruction]));
+                break;
+            case END:
+                out.append("END");
+                break;
+        }
+    }
+
+    public String intermediateCode() {
+        StringBuilder code = new StringBuilder(24 * count);
+        try {
+            writeIntermediateCode(code);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return code.toString();
+    }
+
+    public String numberedCode() {
+        StringBuilder code = new StringBuilder(28 * count);
+        try {
+            writeNumberedCode(code);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return code.toString();
+    }
+
+    /**
+     * Writes the code in binary form: a versioned header, the operand and label tables and every instruction as
+     * its opcode and operator byte followed by its four operand fields as variable length unsigned ints (id + 1, 0 is none).
+     * The file is written next to its final name and moved in place.
+     */
+    public void writeDump(String fileName) throws IOException {
+        Path path = Paths.get(fileName).toAbsolutePath();
+        Path temporary = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(DUMP_MAGIC);
+            out.writeInt(DUMP_VERSION);
+            writeUnsigned(out, operandNames.size());
+            for (int a = 0; a < operandNames.size(); a++) {
+                out.writeByte(operandKinds[a]);
+                writeString(out, operandNames.get(a));
+            }
+            writeUnsigned(out, labelNames.size());
+            for (String labelName : labelNames)
+                writeString(out, labelName);
+            writeUnsigned(out, labelCount);
+            writeUnsigned(out, count);
+            for (int a = 0; a < count; a++) {
+                out.writeByte(opcodes[a]);
+                out.writeByte(operators[a]);
+                writeUnsigned(out, results[a] + 1);
+                writeUnsigned(out, lefts[a] + 1);
+                writeUnsigned(out, rights[a] + 1);
+                writeUnsigned(out, targets[a] + 1);
+            }
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads code written by writeDump.
+     */
+    public static IntermediateCode readDump(String fileName) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(Paths.get(fileName))))) {
+            if (in.readInt() != DUMP_MAGIC || in.readInt() != DUMP_VERSION)
+                throw new IOException(fileName + " is not an intermediate code dump of this version");
+            int operandCount = readUnsigned(in);
+            ArrayList<String> operandNames = new ArrayList<>(operandCount);
+            byte operandKinds[] = new byte[Math.max(operandCount, 64)];
+            for (int a = 0; a < operandCount; a++) {
+                operandKinds[a] = in.readByte();
+                operandNames.add(readString(in));
+            }
+            int labelNameCount = readUnsigned(in);
+            ArrayList<String> labelNames = new ArrayList<>(labelNameCount);
+            for (int a = 0; a < labelNameCount; a++)
+                labelNames.add(readString(in));
+
+            IntermediateCode code = new IntermediateCode(0);
+            code.labelCount = readUnsigned(in);
+            int count = readUnsigned(in);
+            for (int a = 0; a < count; a++) {
+                Opcode opcode = OPCODES[in.readByte()];
+                Operator operator = OPERATORS[in.readByte()];
+                code.add(opcode, operator, readUnsigned(in) - 1, readUnsigned(in) - 1, readUnsigned(in) - 1, readUnsigned(in) - 1);
+            }
+            code.operandNames = operandNames;
+            code.operandKinds = operandKinds;
+            code.labelNames = labelNames;
+            for (int a = 0; a < operandCount; a++)
+                if (operandKinds[a] == CONSTANT)
+                    code.constants.put(operandNames.get(a), a);
+            for (int a = 0; a < labelNameCount; a++)
+                if (!Character.isDigit(labelNames.get(a).charAt(1)))
+                    code.functionLabels.put(labelNames.get(a).substring(1), a);
+            return code;
+        }
+    }
+
+    private void add(Opcode opcode, Operator operator, int result, int left, int right, int target) {
+        if (count == opcodes.length) {
+            int capacity = count * 2;
+            opcodes = Arrays.copyOf(opcodes, capacity);
+            operators = Arrays.copyOf(operators, capacity);
+            results = Arrays.copyOf(results, capacity);
+            lefts = Arrays.copyOf(lefts, capacity);
+            rights = Arrays.copyOf(rights, capacity);
+            targets = Arrays.copyOf(targets, capacity);
+        }
+        opcodes[count] = (byte) opcode.ordinal();
+        operators[count] = (byte) operator.ordinal();
+        results[count] = result;
+        lefts[count] = left;
+        rights[count] = right;
+        targets[count] = target;
+        count++;
+    }
+
+    private int addOperand(String name, byte kind) {
+        int operand = operandNames.size();
+        if (operand == operandKinds.length)
+            operandKinds = Arrays.copyOf(operandKinds, operand * 2);
+        operandKinds[operand] = kind;
+        operandNames.add(name);
+        return operand;
+    }
+
+    private static void writeUnsigned(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readUnsigned(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte bytes[] = value.getBytes(StandardCharsets.UTF_8);
+        writeUnsigned(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte bytes[] = new byte[readUnsigned(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
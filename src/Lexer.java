@@ -0,0 +1,202 @@
+/**
+ * Splits SPL source into tokens, one per call to next, straight out of the input without regular expressions.
+ * Names are a lower case letter followed by lower case letters and digits, keywords are the names reserved by Token.
+ * Numbers are 0 or an optionally negative number without leading zeros, strings hold at most 8 characters between
+ * double quotes on one line. The text of the last token is the region from start to end of the input.
+ */
+public class Lexer {
+    static final int MAX_STRING = 8;
+    private static final Token KEYWORDS[] = keywords();
+
+    private final CharSequence input;
+    private final int length;
+    private int position = 0;
+    private int line = 1;
+    private int lineStart = 0; //position of the first character of the line
+
+    private int start; //region and place of the last token
+    private int end;
+    private int tokenLine;
+    private int tokenColumn;
+
+    public Lexer(CharSequence input) {
+        this.input = input;
+        this.length = input.length();
+    }
+
+    public CharSequence input() {
+        return input;
+    }
+
+    /**
+     * Scans the next token, END once the input is exhausted.
+     */
+    public Token next() {
+        skipSpace();
+        start = position;
+        tokenLine = line;
+        tokenColumn = position - lineStart + 1;
+        if (position >= length) {
+            end = position;
+            return Token.END;
+        }
+
+        char c = input.charAt(position);
+        Token token;
+        if (c >= 'a' && c <= 'z') {
+            position++;
+            while (position < length && isNameCharacter(input.charAt(position)))
+                position++;
+            token = keyword(start, position);
+        } else if (c == 'T' || c == 'F') {
+            position++;
+            if (position < length && Character.isLetterOrDigit(input.charAt(position)))
+                throw error("unexpected character '" + c + "'");
+            token = c == 'T'? Token.TRUE : Token.FALSE;
+        } else if (c == '-' || (c >= '0' && c <= '9')) {
+            token = number();
+        } else if (c == '"') {
+            token = string();
+        } else {
+            position++;
+            switch (c) {
+                case '(':
+                    token = Token.OPEN;
+                    break;
+                case ')':
+                    token = Token.CLOSE;
+                    break;
+                case '{':
+                    token = Token.OPEN_BLOCK;
+                    break;
+                case '}':
+                    token = Token.CLOSE_BLOCK;
+                    break;
+                case ',':
+                    token = Token.COMMA;
+                    break;
+                case ';':
+                    token = Token.SEMICOLON;
+                    break;
+                case '=':
+                    token = Token.ASSIGN;
+                    break;
+                case '<':
+                    token = Token.LESS;
+                    break;
+                case '>':
+                    token = Token.GREATER;
+                    break;
+                default:
+                    position--;
+                    throw error("unexpected character '" + c + "'");
+            }
+        }
+        end = position;
+        return token;
+    }
+
+    public int start() {
+        return start;
+    }
+
+    public int end() {
+        return end;
+    }
+
+    public int line() {
+        return tokenLine;
+    }
+
+    public int column() {
+        return tokenColumn;
+    }
+
+    private Token number() {
+        if (input.charAt(position) == '-') {
+            position++;
+            if (position >= length || input.charAt(position) < '0' || input.charAt(position) > '9')
+                throw error("expected digit");
+            if (input.charAt(position) == '0')
+                throw error("negative zero");
+        }
+        boolean zero = input.charAt(position) == '0';
+        position++;
+        while (position < length && input.charAt(position) >= '0' && input.charAt(position) <= '9') {
+            if (zero)
+                throw error("leading zero");
+            position++;
+        }
+        if (position < length && isNameCharacter(input.charAt(position)))
+            throw error("expected digit");
+        return Token.NUMBER;
+    }
+
+    private Token string() {
+        position++;
+        while (position < length && input.charAt(position) != '"') {
+            char c = input.charAt(position);
+            if (c == '\n' || c == '\r')
+                break;
+            position++;
+        }
+        if (position >= length || input.charAt(position) != '"')
+            throw error("unterminated string");
+        position++;
+        if (position - start - 2 > MAX_STRING)
+            throw error("string too long");
+        return Token.STRING;
+    }
+
+    private Token keyword(int start, int stop) {
+        int length = stop - start;
+        for (Token keyword : KEYWORDS) {
+            String text = keyword.text;
+            if (text.length() != length)
+                continue;
+            int a = 0;
+            while (a < length && text.charAt(a) == input.charAt(start + a))
+                a++;
+            if (a == length)
+                return keyword;
+        }
+        return Token.NAME;
+    }
+
+    private void skipSpace() {
+        while (position < length) {
+            char c = input.charAt(position);
+            if (c == '\n') {
+                line++;
+                lineStart = position + 1;
+            } else if (c != ' ' && c != '\t' && c != '\r') {
+                break;
+            }
+            position++;
+        }
+    }
+
+    private static boolean isNameCharacter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9');
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("Lexical error at line " + line + " column " + (position - lineStart + 1) + ": " + message);
+    }
+
+    /**
+     * The tokens spelt like names.
+     */
+    private static Token[] keywords() {
+        int count = 0;
+        for (Token token : Token.values())
+            if (token.text != null && token.text.charAt(0) >= 'a' && token.text.charAt(0) <= 'z')
+                count++;
+        Token keywords[] = new Token[count];
+        count = 0;
+        for (Token token : Token.values())
+            if (token.text != null && token.text.charAt(0) >= 'a' && token.text.charAt(0) <= 'z')
+                keywords[count++] = token;
+        return keywords;
+    }
+}
@@ -1,5 +1,4 @@
 import java.io.*;
-import java.util.ArrayList;
 
 
 /**
@@ -8,18 +7,264 @@ import java.util.ArrayList;
 
 public class Main {
     public static void main(String strings[]) {
-        String abstractFileName = (strings.length > 0? strings[0] : "at.txt");
-        ArrayList<String> lines = getAbstractFile(abstractFileName);
-
-        AbstractTree abstractTree = new AbstractTree(lines);
-        SemanticTable semanticTable = new SemanticTable(abstractTree);
-        Translator translator = new Translator(abstractTree, semanticTable);
-
-        System.out.println(semanticTable.toString());
-        System.out.println(translator.getIntermediateCode());
-        saveToFile("./auxiliary.txt", translator.getIntermediateCode());
-        System.out.println(translator.getFinalIntermediateCode());
-        saveToFile("./output.bas", translator.getFinalIntermediateCode());
+        String abstractFileName = "at.txt";
+        String sourceFileName = null; //SPL source parsed in process instead of an abstract tree file
+        boolean dumpTrees = false; //write the concrete and abstract tree of the source as ct.txt and at.txt
+        boolean parallel = false; //check procedure bodies concurrently
+        boolean dumpCode = false; //write the intermediate code in binary form
+        String codeFileName = null; //intermediate code written by -ir, loaded instead of compiling a tree
+        boolean optimize = false; //peephole optimise the intermediate code
+        boolean run = false; //run the BASIC program once it is written
+        boolean runCompiled = false; //run the program compiled to JVM bytecode
+        boolean saveClass = false; //write the compiled program as a class file
+        boolean stats = false; //report the time, allocation and work of every phase
+        String batch = null; //directory or manifest of abstract tree files to compile together
+        String outputDirectory = null; //where batch outputs go, next to the inputs if not given
+        int threads = Runtime.getRuntime().availableProcessors(); //batch workers
+        int serverPort = -1; //stay resident and compile requests from this loopback port, 0 for any free port
+        String inputFileName = null; //lines read by INPUT when running, standard input if not given
+        String cacheDirectory = null; //where compile results are kept for identical inputs, no cache if not given
+        long cacheBytes = 256L << 20; //size cap of the result cache
+        for (int a = 0; a < strings.length; a++) {
+            String argument = strings[a];
+            if (argument.equals("-parallel"))
+                parallel = true;
+            else if (argument.equals("-ir"))
+                dumpCode = true;
+            else if (argument.equals("-loadir") && a + 1 < strings.length)
+                codeFileName = strings[++a];
+            else if (argument.equals("-O"))
+                optimize = true;
+            else if (argument.equals("-run"))
+                run = true;
+            else if (argument.equals("-jvm"))
+                runCompiled = true;
+            else if (argument.equals("-class"))
+                saveClass = true;
+            else if (argument.equals("-stats"))
+                stats = true;
+            else if (argument.equals("-batch") && a + 1 < strings.length)
+                batch = strings[++a];
+            else if (argument.equals("-out") && a + 1 < strings.length)
+                outputDirectory = strings[++a];
+            else if (argument.equals("-threads") && a + 1 < strings.length)
+                threads = Integer.parseInt(strings[++a]);
+            else if (argument.equals("-serve") && a + 1 < strings.length)
+                serverPort = Integer.parseInt(strings[++a]);
+            else if (argument.equals("-input") && a + 1 < strings.length)
+                inputFileName = strings[++a];
+            else if (argument.equals("-source") && a + 1 < strings.length)
+                sourceFileName = strings[++a];
+            else if (argument.equals("-trees"))
+                dumpTrees = true;
+            else if (argument.equals("-cache") && a + 1 < strings.length)
+                cacheDirectory = strings[++a];
+            else if (argument.equals("-cachesize") && a + 1 < strings.length)
+                cacheBytes = Long.parseLong(strings[++a]) << 20; //megabytes
+            else
+                abstractFileName = argument;
+        }
+        if (serverPort >= 0) {
+            try {
+                CompilerServer server = new CompilerServer(serverPort);
+                System.out.println("Listening on port " + server.port());
+                server.serve();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+        if (batch != null) {
+            try {
+                BatchCompiler batchCompiler = new BatchCompiler(batch, outputDirectory, optimize, threads);
+                batchCompiler.compile();
+                System.out.print(batchCompiler.summary());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+
+        PhaseTimer timer = new PhaseTimer();
+        ResultCache cache = null;
+        String key = null;
+        String results[] = null; //semantic report, intermediate code, numbered BASIC and optimisation report
+        if (cacheDirectory != null && codeFileName == null && !dumpCode && !dumpTrees && !runCompiled && !saveClass) { //those need the trees or the code
+            timer.start("cache");
+            try {
+                cache = new ResultCache(cacheDirectory, cacheBytes);
+                key = sourceFileName != null? ResultCache.key(sourceFileName, optimize, true) : ResultCache.key(abstractFileName, optimize, false);
+                results = cache.get(key);
+            } catch (IOException e) {
+                e.printStackTrace();
+                cache = null;
+            }
+            timer.add(results == null? "cache misses" : "cache hits", 1);
+            timer.stop();
+        }
+
+        IntermediateCode code = null;
+        if (codeFileName != null) {
+            timer.start("load");
+            try {
+                code = IntermediateCode.readDump(codeFileName);
+            } catch (IOException | RuntimeException e) { //missing, of another version or damaged
+                System.out.println(e);
+                return;
+            }
+            timer.start("number");
+            results = new String[]{null, code.intermediateCode(), code.numberedCode(), null}; //no tree to report on
+            timer.stop();
+        }
+        if (results == null) {
+            AbstractTree abstractTree;
+            SemanticTable semanticTable;
+            Translator translator;
+            try {
+                abstractTree = sourceFileName != null? parseSource(sourceFileName, dumpTrees, timer) : loadAbstractTree(abstractFileName, timer);
+                semanticTable = new SemanticTable(abstractTree, parallel, timer);
+                translator = new Translator(abstractTree, semanticTable, optimize, timer);
+                code = translator.getCode();
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            } catch (IllegalArgumentException e) { //a lexical or syntax error
+                System.out.println(e.getMessage());
+                return;
+            } catch (StackOverflowError e) { //a phase that still recurses over the nesting
+                System.out.println("Compile error: the program nests too deeply");
+                return;
+            }
+            results = new String[]{semanticTable.toString(), translator.getIntermediateCode(), translator.getFinalIntermediateCode(),
+                    optimize? translator.getOptimizationReport() : null};
+            if (cache != null) {
+                timer.start("cache");
+                try {
+                    cache.put(key, results);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                timer.stop();
+            }
+        }
+
+        timer.start("write");
+        if (results[0] != null)
+            System.out.println(results[0]);
+        System.out.println(results[1]);
+        saveToFile("./auxiliary.txt", results[1]);
+        System.out.println(results[2]);
+        if (optimize && results[3] != null)
+            System.out.println(results[3]);
+        saveToFile("./output.bas", results[2]);
+        if (dumpCode) {
+            try {
+                code.writeDump("./output.ir");
+                IntermediateCode written = IntermediateCode.readDump("./output.ir"); //what -loadir will see
+                if (!written.intermediateCode().equals(results[1]) || !written.numberedCode().equals(results[2]))
+                    System.out.println("output.ir does not read back as the code written");
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        timer.stop();
+        if (stats) {
+            System.out.print(timer.report());
+            if (cache != null) {
+                try {
+                    System.out.print(cache.summary());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        if (run)
+            runProgram(results[2], inputFileName);
+        if (runCompiled || saveClass) {
+            BytecodeCompiler compiler;
+            try {
+                compiler = new BytecodeCompiler(code, "Output");
+            } catch (IllegalArgumentException e) { //a class beyond the limits of the JVM
+                System.out.println("Compile error: " + e.getMessage());
+                return;
+            }
+            if (saveClass) {
+                try {
+                    compiler.save("./Output.class");
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            if (runCompiled)
+                runCompiledProgram(compiler, inputFileName);
+        }
+    }
+
+    /**
+     * Loads the abstract tree from its binary cache next to the file when the cache matches the file contents,
+     * otherwise parses the file and refreshes the cache. Reading the source and the cache is timed as load, parsing as tree.
+     */
+    static AbstractTree loadAbstractTree(String fileName, PhaseTimer timer) throws IOException {
+        return loadAbstractTree(fileName, fileName + ".astc", timer);
+    }
+
+    /**
+     * Loads the abstract tree like loadAbstractTree, keeping its binary cache in cacheFileName.
+     */
+    static AbstractTree loadAbstractTree(String fileName, String cacheFileName, PhaseTimer timer) throws IOException {
+        timer.start("load");
+        long sourceHash = AbstractTree.sourceHash(fileName);
+        AbstractTree abstractTree = AbstractTree.readCache(cacheFileName, sourceHash);
+        if (abstractTree == null) {
+            timer.start("tree");
+            abstractTree = AbstractTree.load(fileName);
+            try {
+                abstractTree.writeCache(cacheFileName, sourceHash); //before semantic analysis renames the values
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        timer.stop();
+        return abstractTree;
+    }
+
+    /**
+     * Parses SPL source in process, timed as parse. dumpTrees writes its concrete and abstract tree as ct.txt and at.txt,
+     * in the format of the external parser.
+     */
+    static AbstractTree parseSource(String fileName, boolean dumpTrees, PhaseTimer timer) throws IOException {
+        timer.start("parse");
+        Parser parser = Parser.load(fileName, dumpTrees);
+        timer.stop();
+        if (dumpTrees) {
+            saveToFile("./ct.txt", parser.getConcreteTreeText());
+            saveToFile("./at.txt", parser.getAbstractTreeText());
+        }
+        return parser.getAbstractTree();
+    }
+
+    /**
+     * Runs the numbered program with the built in interpreter.
+     */
+    private static void runProgram(String program, String inputFileName) {
+        try (BufferedReader input = new BufferedReader(inputFileName == null?
+                new InputStreamReader(System.in) : new FileReader(inputFileName))) {
+            new BasicInterpreter(program).run(input, System.out, 0);
+        } catch (IOException | RuntimeException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Runs the program compiled to JVM bytecode.
+     */
+    private static void runCompiledProgram(BytecodeCompiler compiler, String inputFileName) {
+        try (BufferedReader input = new BufferedReader(inputFileName == null?
+                new InputStreamReader(System.in) : new FileReader(inputFileName))) {
+            BytecodeCompiler.run(compiler.load(), input, System.out);
+        } catch (IOException | RuntimeException e) {
+            System.out.println(e.getMessage());
+        }
     }
 
     private static void saveToFile(String fileName, String content) {
@@ -31,20 +276,4 @@ public class Main {
             ex.printStackTrace();
         }
     }
-
-    private static ArrayList<String> getAbstractFile(String fileName) {
-        ArrayList<String> lines = new ArrayList<>();
-        try {
-            File file = new File(fileName);
-            FileReader fileReader = new FileReader(file);
-            BufferedReader bufferedReader = new BufferedReader(fileReader);
-            String line;
-            while ((line = bufferedReader.readLine()) != null)
-                lines.add(line);
-            fileReader.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return lines;
-    }
 }
\ No newline at end of file
@@ -0,0 +1,11 @@
+public enum Opcode {
+    LABEL,
+    LET,
+    IF,
+    GOTO,
+    GOSUB,
+    RETURN,
+    INPUT,
+    PRINT,
+    END,
+}
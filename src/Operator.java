@@ -0,0 +1,40 @@
+public enum Operator {
+    NONE(""),
+    EQ("="),
+    LT("<"),
+    GT(">"),
+    ADD("+"),
+    SUB("-"),
+    MUL("*"),
+    NE("<>"),
+    LE("<="),
+    GE(">=");
+
+    public final String symbol;
+
+    Operator(String symbol) {
+        this.symbol = symbol;
+    }
+
+    /**
+     * The comparison that holds exactly when this one does not, NONE for operators that are not comparisons.
+     */
+    public Operator negated() {
+        switch (this) {
+            case EQ:
+                return NE;
+            case NE:
+                return EQ;
+            case LT:
+                return GE;
+            case GE:
+                return LT;
+            case GT:
+                return LE;
+            case LE:
+                return GT;
+            default:
+                return NONE;
+        }
+    }
+}
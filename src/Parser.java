@@ -0,0 +1,768 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Predictive parser for SPL source, pulling tokens from a Lexer and building the AbstractTree in memory.
+ * The rules being parsed are kept on an explicit stack, so how deep blocks and expressions nest is bounded by heap
+ * and not by the thread stack.
+ * <pre>
+ * PROG      = CODE | CODE ; PROC_DEFS         PROC_DEFS = PROC | PROC PROC_DEFS
+ * PROC      = proc name { PROG }              CODE      = INSTR | INSTR ; CODE
+ * INSTR     = halt | DECL | IO | CALL | ASSIGN | COND_BRANCH | COND_LOOP
+ * DECL      = TYPE NAME                       IO        = input(VAR) | output(VAR)
+ * ASSIGN    = VAR = string | VAR = NUMEXPR | VAR = BOOL
+ * NUMEXPR   = VAR | number | CALC             CALC      = add(NUMEXPR,NUMEXPR) | sub(...) | mult(...)
+ * COND_BRANCH = if(BOOL) then {CODE} | if(BOOL) then {CODE} else {CODE}
+ * BOOL      = eq(X,X) | (NUMEXPR &lt; NUMEXPR) | (NUMEXPR &gt; NUMEXPR) | not BOOL | and(BOOL,BOOL) | or(BOOL,BOOL) | T | F | VAR
+ * COND_LOOP = while(BOOL) {CODE} | for(VAR = number; VAR &lt; VAR; VAR = add(VAR,number)) {CODE}
+ * </pre>
+ * where X is any right hand side of an assignment. Nodes are numbered the way the external parser numbered them:
+ * visiting the tree depth first, every node hands out consecutive ids to its children, so abstract trees read from
+ * its at.txt and parsed here are the same. The concrete tree is only kept when asked for, to write ct.txt.
+ */
+public class Parser {
+    private static final AbstractNodeType TYPES[] = AbstractNodeType.values();
+    private static final Token TOKENS[] = Token.values();
+    private static final AbstractNodeType DECLARATIONS[] = {AbstractNodeType.NumDecl, AbstractNodeType.StrDecl, AbstractNodeType.BoolDecl};
+    private static final String NON_TERMINALS[] = {"Prog", "ProcDefs", "Proc", "Code", "Instr", "IO", "Call", "Decl", "Type",
+            "Name", "Var", "Assign", "NumExpr", "Calc", "CondBranch", "Bool", "CondLoop"};
+    private static final int PROG = 0;
+    private static final int PROC_DEFS = 1;
+    private static final int PROC = 2;
+    private static final int CODE = 3;
+    private static final int INSTR = 4;
+    private static final int IO = 5;
+    private static final int CALL = 6;
+    private static final int DECL = 7;
+    private static final int TYPE = 8;
+    private static final int NAME = 9;
+    private static final int VAR = 10;
+    private static final int ASSIGN = 11;
+    private static final int NUM_EXPR = 12;
+    private static final int CALC = 13;
+    private static final int COND_BRANCH = 14;
+    private static final int BOOL = 15;
+    private static final int COND_LOOP = 16;
+    private static final int NONE = AbstractTree.NONE;
+
+    private final Lexer lexer;
+    private final CharSequence input;
+    private final AbstractTree.Builder builder;
+    private final Nodes nodes = new Nodes(); //abstract nodes, tag is the type and value the value id
+    private final Nodes concrete; //tag is the token, or -1 - the non terminal, value the token start; null when not kept
+
+    //current token and the one after it, read on demand
+    private Token token;
+    private int tokenStart;
+    private int tokenEnd;
+    private int tokenLine;
+    private int tokenColumn;
+    private Token nextToken = null;
+    private int nextStart;
+    private int nextEnd;
+    private int nextLine;
+    private int nextColumn;
+
+    //rules being parsed, innermost last: the step to run next, where the rule adds its nodes and the nodes it made
+    private int rules[] = new int[64];
+    private int steps[] = new int[64];
+    private int parents[] = new int[64];
+    private int concreteParents[] = new int[64];
+    private int ruleNodes[] = new int[64];
+    private int productions[] = new int[64];
+    private int depth = 0;
+
+    private final AbstractTree tree;
+    private int ids[]; //id of every abstract node
+    private int concreteIds[];
+
+    /**
+     * Parses the whole input, keepConcrete also keeps the concrete tree for getConcreteTreeText.
+     * Throws IllegalArgumentException with the place of the first lexical or syntax error.
+     */
+    public Parser(CharSequence input, boolean keepConcrete) {
+        this.lexer = new Lexer(input);
+        this.input = input;
+        this.builder = new AbstractTree.Builder(input.length() / 4);
+        this.concrete = keepConcrete? new Nodes() : null;
+        advance();
+        parse();
+        if (token != Token.END)
+            throw unexpected("end of input");
+
+        ids = number(nodes);
+        if (concrete != null)
+            concreteIds = number(concrete);
+        for (int node = 0; node < nodes.count; node++) {
+            builder.node(ids[node], TYPES[nodes.tags[node]], nodes.values[node]);
+            for (int child = nodes.firstChild[node]; child != NONE; child = nodes.nextSibling[child])
+                builder.addChild(ids[node], ids[child]);
+        }
+        tree = new AbstractTree(builder);
+    }
+
+    /**
+     * Parses a source file, mapped into memory like abstract tree files are.
+     */
+    public static Parser load(String fileName, boolean keepConcrete) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new Parser(new ByteCharSequence(buffer), keepConcrete);
+        }
+    }
+
+    public AbstractTree getAbstractTree() {
+        return tree;
+    }
+
+    /**
+     * The abstract tree in the at.txt format, one node per line in depth first order, indented by depth.
+     * Written from the parse, so it holds the names before semantic analysis renames them.
+     */
+    public String getAbstractTreeText() {
+        StringBuilder text = new StringBuilder();
+        int depths[] = depths(nodes);
+        for (int node = 0; node < nodes.count; node++) {
+            indent(text, depths[node]).append(ids[node]).append(' ');
+            AbstractNodeType type = TYPES[nodes.tags[node]];
+            text.append(type.name());
+            if (nodes.values[node] != NONE) {
+                String value = builder.valuePool().get(nodes.values[node]);
+                if (type == AbstractNodeType.String) //string literals keep their quotes
+                    text.append('(').append(value).append(')');
+                else
+                    text.append("(\"").append(value).append("\")");
+            }
+            for (int child = nodes.firstChild[node]; child != NONE; child = nodes.nextSibling[child])
+                text.append(' ').append(ids[child]);
+            text.append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * The concrete tree in the ct.txt format, non terminals as NonTerm(name) and tokens as Term(category("text")).
+     */
+    public String getConcreteTreeText() {
+        if (concrete == null)
+            throw new IllegalStateException("The concrete tree was not kept");
+        StringBuilder text = new StringBuilder();
+        int depths[] = depths(concrete);
+        for (int node = 0; node < concrete.count; node++) {
+            indent(text, depths[node]).append(concreteIds[node]).append(' ');
+            int tag = concrete.tags[node];
+            if (tag < 0) {
+                text.append("NonTerm(").append(NON_TERMINALS[-1 - tag]).append(')');
+            } else {
+                Token terminal = TOKENS[tag];
+                int start = concrete.values[node];
+                int end = concrete.ends[node];
+                if (terminal == Token.STRING) { //without its quotes
+                    start++;
+                    end--;
+                }
+                text.append("Term(").append(terminal.category).append("(\"").append(input, start, end).append("\"))");
+            }
+            for (int child = concrete.firstChild[node]; child != NONE; child = concrete.nextSibling[child])
+                text.append(' ').append(concreteIds[child]);
+            text.append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Runs the rules from the stack until the program is done. Every rule is a sequence of steps: a step reads tokens,
+     * adds nodes and may push the rule it continues with, so the rule's next step runs once that one is popped.
+     */
+    private void parse() {
+        push(PROG, NONE, NONE);
+        while (depth > 0) {
+            int top = depth - 1;
+            int step = steps[top]++;
+            switch (rules[top]) {
+                case PROG:
+                    prog(top, step);
+                    break;
+                case PROC_DEFS:
+                    procDefs(top, step);
+                    break;
+                case PROC:
+                    proc(top, step);
+                    break;
+                case CODE:
+                    code(top, step);
+                    break;
+                case INSTR:
+                    instr(top);
+                    break;
+                case NUM_EXPR:
+                    numExpr(top, step);
+                    break;
+                case BOOL:
+                    bool(top, step);
+                    break;
+                case COND_BRANCH:
+                    condBranch(top, step);
+                    break;
+                case COND_LOOP:
+                    condLoop(top, step);
+                    break;
+                default:
+                    throw new IllegalStateException("No rule " + NON_TERMINALS[rules[top]]);
+            }
+        }
+    }
+
+    private void prog(int frame, int step) {
+        switch (step) {
+            case 0:
+                ruleNodes[frame] = node(parents[frame], AbstractNodeType.Prog, NONE);
+                productions[frame] = nonTerminal(concreteParents[frame], PROG);
+                push(CODE, ruleNodes[frame], productions[frame]);
+                break;
+            case 1:
+                if (token != Token.SEMICOLON) { //only left over when no instruction follows
+                    depth--;
+                    break;
+                }
+                terminal(productions[frame]);
+                if (token != Token.PROC)
+                    throw unexpected("proc");
+                push(PROC_DEFS, ruleNodes[frame], productions[frame]);
+                break;
+            default:
+                depth--;
+        }
+    }
+
+    private void procDefs(int frame, int step) {
+        if (step == 0) {
+            ruleNodes[frame] = node(parents[frame], AbstractNodeType.ProcDefs, NONE);
+            productions[frame] = nonTerminal(concreteParents[frame], PROC_DEFS);
+        } else if (token != Token.PROC) {
+            depth--;
+            return;
+        } else {
+            productions[frame] = nonTerminal(productions[frame], PROC_DEFS);
+        }
+        push(PROC, ruleNodes[frame], productions[frame]);
+    }
+
+    private void proc(int frame, int step) {
+        int production;
+        if (step == 0) {
+            production = productions[frame] = nonTerminal(concreteParents[frame], PROC);
+            expect(Token.PROC, production);
+            int node = ruleNodes[frame] = node(parents[frame], AbstractNodeType.Proc, name());
+            expect(Token.NAME, production);
+            expect(Token.OPEN_BLOCK, production);
+            push(PROG, node, production);
+        } else {
+            expect(Token.CLOSE_BLOCK, productions[frame]);
+            depth--;
+        }
+    }
+
+    private void code(int frame, int step) {
+        if (step == 0) {
+            ruleNodes[frame] = node(parents[frame], AbstractNodeType.Code, NONE);
+            productions[frame] = nonTerminal(concreteParents[frame], CODE);
+        } else if (token != Token.SEMICOLON || !startsInstruction(peek())) {
+            depth--;
+            return;
+        } else {
+            terminal(productions[frame]);
+            productions[frame] = nonTerminal(productions[frame], CODE);
+        }
+        push(INSTR, ruleNodes[frame], productions[frame]);
+    }
+
+    /**
+     * An instruction is done in one step, branches, loops and assigned values hand over to their rule in its place.
+     */
+    private void instr(int frame) {
+        int parent = parents[frame];
+        int production = nonTerminal(concreteParents[frame], INSTR);
+        depth--;
+        switch (token) {
+            case HALT:
+                node(parent, AbstractNodeType.Halt, NONE);
+                terminal(production);
+                break;
+            case NUM:
+            case STRING_TYPE:
+            case BOOL:
+                int declaration = nonTerminal(production, DECL);
+                AbstractNodeType type = DECLARATIONS[token.ordinal() - Token.NUM.ordinal()];
+                terminal(nonTerminal(declaration, TYPE));
+                node(parent, type, name());
+                expect(Token.NAME, nonTerminal(declaration, NAME));
+                break;
+            case INPUT:
+            case OUTPUT:
+                int io = nonTerminal(production, IO);
+                int node = node(parent, token == Token.INPUT? AbstractNodeType.Input : AbstractNodeType.Output, NONE);
+                terminal(io);
+                expect(Token.OPEN, io);
+                var(node, io);
+                expect(Token.CLOSE, io);
+                break;
+            case IF:
+                push(COND_BRANCH, parent, production);
+                break;
+            case WHILE:
+            case FOR:
+                push(COND_LOOP, parent, production);
+                break;
+            case NAME:
+                if (peek() == Token.ASSIGN) {
+                    int assignment = nonTerminal(production, ASSIGN);
+                    int assign = node(parent, AbstractNodeType.Assign, NONE);
+                    var(assign, assignment);
+                    expect(Token.ASSIGN, assignment);
+                    value(assign, assignment);
+                } else {
+                    node(parent, AbstractNodeType.Call, name());
+                    terminal(nonTerminal(production, CALL));
+                }
+                break;
+            default:
+                throw unexpected("instruction");
+        }
+    }
+
+    /**
+     * A string, a boolean or a number expression, whichever the next token starts. Strings are read at once,
+     * expressions are pushed.
+     */
+    private void value(int parent, int concreteParent) {
+        if (token == Token.STRING) {
+            node(parent, AbstractNodeType.String, tokenValue());
+            terminal(concreteParent);
+        } else if (startsBoolean(token)) {
+            push(BOOL, parent, concreteParent);
+        } else {
+            push(NUM_EXPR, parent, concreteParent);
+        }
+    }
+
+    private void numExpr(int frame, int step) {
+        switch (step) {
+            case 0:
+                int parent = parents[frame];
+                int production = nonTerminal(concreteParents[frame], NUM_EXPR);
+                switch (token) {
+                    case NAME:
+                        depth--;
+                        var(parent, production);
+                        return;
+                    case NUMBER:
+                        depth--;
+                        node(parent, AbstractNodeType.Number, tokenValue());
+                        terminal(production);
+                        return;
+                    case ADD:
+                    case SUB:
+                    case MULT:
+                        int calc = productions[frame] = nonTerminal(production, CALC);
+                        int node = ruleNodes[frame] = node(parent, token == Token.ADD? AbstractNodeType.AddExpr :
+                                token == Token.SUB? AbstractNodeType.SubExpr : AbstractNodeType.MultExpr, NONE);
+                        terminal(calc);
+                        expect(Token.OPEN, calc);
+                        push(NUM_EXPR, node, calc);
+                        return;
+                    default:
+                        throw unexpected("number expression");
+                }
+            case 1:
+                expect(Token.COMMA, productions[frame]);
+                push(NUM_EXPR, ruleNodes[frame], productions[frame]);
+                break;
+            default:
+                expect(Token.CLOSE, productions[frame]);
+                depth--;
+        }
+    }
+
+    /**
+     * Binary operators take three steps: the operator and the first operand, the separator and the second, the close.
+     */
+    private void bool(int frame, int step) {
+        int production;
+        int node;
+        switch (step) {
+            case 0:
+                int parent = parents[frame];
+                production = productions[frame] = nonTerminal(concreteParents[frame], BOOL);
+                switch (token) {
+                    case TRUE:
+                    case FALSE:
+                        depth--;
+                        node(parent, token == Token.TRUE? AbstractNodeType.True : AbstractNodeType.False, NONE);
+                        terminal(production);
+                        return;
+                    case NOT:
+                        depth--;
+                        node = node(parent, AbstractNodeType.NotExpr, NONE);
+                        terminal(production);
+                        push(BOOL, node, production);
+                        return;
+                    case AND:
+                    case OR:
+                    case EQ:
+                        node = node(parent, token == Token.AND? AbstractNodeType.AndExpr :
+                                token == Token.OR? AbstractNodeType.OrExpr : AbstractNodeType.EqExpr, NONE);
+                        terminal(production);
+                        expect(Token.OPEN, production);
+                        break;
+                    case OPEN:
+                        node = node(parent, AbstractNodeType.LessExpr, NONE); //or GreaterExpr, known at the operator
+                        terminal(production);
+                        break;
+                    case NAME:
+                        depth--;
+                        var(parent, production);
+                        return;
+                    default:
+                        throw unexpected("boolean expression");
+                }
+                ruleNodes[frame] = node;
+                operand(node, production);
+                break;
+            case 1:
+                production = productions[frame];
+                node = ruleNodes[frame];
+                if (nodes.tags[node] == AbstractNodeType.LessExpr.ordinal()) {
+                    if (token != Token.LESS && token != Token.GREATER)
+                        throw unexpected("< or >");
+                    if (token == Token.GREATER)
+                        nodes.tags[node] = (byte) AbstractNodeType.GreaterExpr.ordinal();
+                    terminal(production);
+                } else {
+                    expect(Token.COMMA, production);
+                }
+                operand(node, production);
+                break;
+            default:
+                expect(Token.CLOSE, productions[frame]);
+                depth--;
+        }
+    }
+
+    /**
+     * Reads or pushes an operand of a binary boolean operator.
+     */
+    private void operand(int node, int production) {
+        switch (TYPES[nodes.tags[node]]) {
+            case AndExpr:
+            case OrExpr:
+                push(BOOL, node, production);
+                break;
+            case EqExpr:
+                value(node, production);
+                break;
+            default: //a comparison
+                push(NUM_EXPR, node, production);
+        }
+    }
+
+    private void condBranch(int frame, int step) {
+        int production = productions[frame];
+        switch (step) {
+            case 0:
+                production = productions[frame] = nonTerminal(concreteParents[frame], COND_BRANCH);
+                int node = ruleNodes[frame] = node(parents[frame], AbstractNodeType.CondBranch, NONE);
+                expect(Token.IF, production);
+                expect(Token.OPEN, production);
+                push(BOOL, node, production);
+                break;
+            case 1:
+                expect(Token.CLOSE, production);
+                expect(Token.THEN, production);
+                expect(Token.OPEN_BLOCK, production);
+                push(CODE, ruleNodes[frame], production);
+                break;
+            case 2:
+                expect(Token.CLOSE_BLOCK, production);
+                if (token != Token.ELSE) {
+                    depth--;
+                    break;
+                }
+                terminal(production);
+                expect(Token.OPEN_BLOCK, production);
+                push(CODE, ruleNodes[frame], production);
+                break;
+            default:
+                expect(Token.CLOSE_BLOCK, production);
+                depth--;
+        }
+    }
+
+    private void condLoop(int frame, int step) {
+        int production = productions[frame];
+        switch (step) {
+            case 0:
+                production = productions[frame] = nonTerminal(concreteParents[frame], COND_LOOP);
+                if (token == Token.WHILE) {
+                    int node = ruleNodes[frame] = node(parents[frame], AbstractNodeType.WhileLoop, NONE);
+                    terminal(production);
+                    expect(Token.OPEN, production);
+                    push(BOOL, node, production);
+                    break;
+                }
+                forHeader(frame, production);
+                steps[frame] = 2;
+                push(CODE, ruleNodes[frame], production);
+                break;
+            case 1:
+                expect(Token.CLOSE, production);
+                expect(Token.OPEN_BLOCK, production);
+                push(CODE, ruleNodes[frame], production);
+                break;
+            default:
+                expect(Token.CLOSE_BLOCK, production);
+                depth--;
+        }
+    }
+
+    /**
+     * for(i = start; i &lt; limit; i = add(i, step)) becomes the start assignment, the test, the step assignment and the body,
+     * read here up to the opening of the body.
+     */
+    private void forHeader(int frame, int production) {
+        int node = ruleNodes[frame] = node(parents[frame], AbstractNodeType.ForLoop, NONE);
+        terminal(production);
+        expect(Token.OPEN, production);
+        int assign = node(node, AbstractNodeType.Assign, NONE);
+        var(assign, production);
+        expect(Token.ASSIGN, production);
+        node(assign, AbstractNodeType.Number, number());
+        expect(Token.NUMBER, production);
+        expect(Token.SEMICOLON, production);
+        int test = node(node, AbstractNodeType.LessExpr, NONE);
+        var(test, production);
+        expect(Token.LESS, production);
+        var(test, production);
+        expect(Token.SEMICOLON, production);
+        assign = node(node, AbstractNodeType.Assign, NONE);
+        var(assign, production);
+        expect(Token.ASSIGN, production);
+        int add = node(assign, AbstractNodeType.AddExpr, NONE);
+        expect(Token.ADD, production);
+        expect(Token.OPEN, production);
+        var(add, production);
+        expect(Token.COMMA, production);
+        node(add, AbstractNodeType.Number, number());
+        expect(Token.NUMBER, production);
+        expect(Token.CLOSE, production);
+        expect(Token.CLOSE, production);
+        expect(Token.OPEN_BLOCK, production);
+    }
+
+    /**
+     * Pushes a rule to run from its first step, adding under parent and concreteParent.
+     */
+    private void push(int rule, int parent, int concreteParent) {
+        if (depth == rules.length) {
+            rules = Arrays.copyOf(rules, depth * 2);
+            steps = Arrays.copyOf(steps, depth * 2);
+            parents = Arrays.copyOf(parents, depth * 2);
+            concreteParents = Arrays.copyOf(concreteParents, depth * 2);
+            ruleNodes = Arrays.copyOf(ruleNodes, depth * 2);
+            productions = Arrays.copyOf(productions, depth * 2);
+        }
+        rules[depth] = rule;
+        steps[depth] = 0;
+        parents[depth] = parent;
+        concreteParents[depth] = concreteParent;
+        ruleNodes[depth] = NONE;
+        productions[depth] = NONE;
+        depth++;
+    }
+
+    private void var(int parent, int concreteParent) {
+        int production = nonTerminal(concreteParent, VAR);
+        node(parent, AbstractNodeType.Var, name());
+        expect(Token.NAME, production);
+    }
+
+    private static boolean startsInstruction(Token token) {
+        switch (token) {
+            case HALT:
+            case NUM:
+            case STRING_TYPE:
+            case BOOL:
+            case INPUT:
+            case OUTPUT:
+            case IF:
+            case WHILE:
+            case FOR:
+            case NAME:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean startsBoolean(Token token) {
+        switch (token) {
+            case TRUE:
+            case FALSE:
+            case NOT:
+            case AND:
+            case OR:
+            case EQ:
+            case OPEN:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Value id of the current token's text, for the name expected there.
+     */
+    private int name() {
+        return token == Token.NAME? tokenValue() : NONE;
+    }
+
+    private int number() {
+        return token == Token.NUMBER? tokenValue() : NONE;
+    }
+
+    private int tokenValue() {
+        return builder.valuePool().intern(input, tokenStart, tokenEnd);
+    }
+
+    private void expect(Token expected, int concreteParent) {
+        if (token != expected)
+            throw unexpected(expected.text != null? "'" + expected.text + "'" : expected.category.toLowerCase());
+        terminal(concreteParent);
+    }
+
+    /**
+     * Records the current token under a concrete node and moves to the next.
+     */
+    private void terminal(int concreteParent) {
+        if (concrete != null)
+            concrete.add(concreteParent, token.ordinal(), tokenStart, tokenEnd);
+        advance();
+    }
+
+    private int nonTerminal(int concreteParent, int nonTerminal) {
+        return concrete == null? NONE : concrete.add(concreteParent, -1 - nonTerminal, NONE, NONE);
+    }
+
+    private int node(int parent, AbstractNodeType type, int value) {
+        return nodes.add(parent, type.ordinal(), value, NONE);
+    }
+
+    private void advance() {
+        if (nextToken != null) {
+            token = nextToken;
+            tokenStart = nextStart;
+            tokenEnd = nextEnd;
+            tokenLine = nextLine;
+            tokenColumn = nextColumn;
+            nextToken = null;
+            return;
+        }
+        token = lexer.next();
+        tokenStart = lexer.start();
+        tokenEnd = lexer.end();
+        tokenLine = lexer.line();
+        tokenColumn = lexer.column();
+    }
+
+    /**
+     * The token after the current one.
+     */
+    private Token peek() {
+        if (nextToken == null) {
+            nextToken = lexer.next();
+            nextStart = lexer.start();
+            nextEnd = lexer.end();
+            nextLine = lexer.line();
+            nextColumn = lexer.column();
+        }
+        return nextToken;
+    }
+
+    private IllegalArgumentException unexpected(String expected) {
+        String found = token == Token.END? "end of input" : "'" + input.subSequence(tokenStart, tokenEnd) + "'";
+        return new IllegalArgumentException("Syntax error at line " + tokenLine + " column " + tokenColumn + ": unexpected " + found + ", expected " + expected);
+    }
+
+    /**
+     * Ids handed out the way the external parser does: depth first, every node numbers its children in a row.
+     * Nodes are created depth first, so walking them by index is the depth first order.
+     */
+    private static int[] number(Nodes nodes) {
+        int ids[] = new int[nodes.count];
+        int next = 1;
+        for (int node = 0; node < nodes.count; node++)
+            for (int child = nodes.firstChild[node]; child != NONE; child = nodes.nextSibling[child])
+                ids[child] = next++;
+        return ids;
+    }
+
+    private static int[] depths(Nodes nodes) {
+        int depths[] = new int[nodes.count];
+        for (int node = 1; node < nodes.count; node++)
+            depths[node] = depths[nodes.parents[node]] + 1;
+        return depths;
+    }
+
+    private static StringBuilder indent(StringBuilder text, int depth) {
+        for (int a = 0; a < depth; a++)
+            text.append(' ');
+        return text;
+    }
+
+    /**
+     * Growable tree of tagged nodes in creation order, children linked first to last.
+     */
+    private static class Nodes {
+        byte tags[] = new byte[64];
+        int values[] = new int[64];
+        int ends[] = new int[64];
+        int parents[] = new int[64];
+        int firstChild[] = new int[64];
+        int lastChild[] = new int[64];
+        int nextSibling[] = new int[64];
+        int count = 0;
+
+        int add(int parent, int tag, int value, int end) {
+            if (count == tags.length) {
+                int capacity = 2 * count;
+                tags = Arrays.copyOf(tags, capacity);
+                values = Arrays.copyOf(values, capacity);
+                ends = Arrays.copyOf(ends, capacity);
+                parents = Arrays.copyOf(parents, capacity);
+                firstChild = Arrays.copyOf(firstChild, capacity);
+                lastChild = Arrays.copyOf(lastChild, capacity);
+                nextSibling = Arrays.copyOf(nextSibling, capacity);
+            }
+            int node = count++;
+            tags[node] = (byte) tag;
+            values[node] = value;
+            ends[node] = end;
+            parents[node] = parent;
+            firstChild[node] = NONE;
+            lastChild[node] = NONE;
+            nextSibling[node] = NONE;
+            if (parent != NONE) {
+                if (lastChild[parent] == NONE)
+                    firstChild[parent] = node;
+                else
+                    nextSibling[lastChild[parent]] = node;
+                lastChild[parent] = node;
+            }
+            return node;
+        }
+    }
+}
@@ -0,0 +1,388 @@
+import java.util.*;
+
+/**
+ * Rewrites intermediate code through a window of neighbouring instructions until no rule applies.
+ * Every rule looks at the instruction it is applied to and the few following it, and counts the instructions it removes.
+ * Label, temporary and jump counts are kept up to date as rules change the code, the removed instructions are
+ * unlinked from a list over the code and dropped from it at the end.
+ */
+public class PeepholeOptimizer {
+    private final IntermediateCode code;
+    private final int size;
+    private int next[];
+    private int previous[];
+    private boolean removed[];
+    private int labelDefinitions[]; //instruction defining each label
+    private int labelReferences[]; //jumps to each label
+    private int definitions[]; //instructions assigning each operand
+    private int uses[]; //instructions reading each operand
+    private final Rule rules[] = new Rule[]{
+            new CopyIntoUse(), new CopyFromResult(), new SelfCopy(), new JumpToNext(), new JumpToJump(),
+            new InvertBranch(), new Unreachable(), new UnusedLabel()};
+
+    public PeepholeOptimizer(IntermediateCode code) {
+        this.code = code;
+        this.size = code.size();
+    }
+
+    /**
+     * Optimises the code and returns the number of instructions removed.
+     */
+    public int optimize() {
+        initialise();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int instruction = first(); instruction != IntermediateCode.NONE; ) {
+                boolean applied = false;
+                for (Rule rule : rules) {
+                    if (rule.apply(instruction)) {
+                        applied = true;
+                        break;
+                    }
+                }
+                changed |= applied;
+                if (!applied || removed[instruction]) //try the rules on an instruction again until none applies
+                    instruction = next[instruction]; //a removed instruction still links to the one after it
+            }
+        }
+        int total = 0;
+        for (Rule rule : rules)
+            total += rule.removed;
+        code.removeInstructions(removed);
+        return total;
+    }
+
+    /**
+     * Instructions removed by every rule, one rule per line.
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder();
+        for (Rule rule : rules)
+            report.append(String.format("%-16s %d removed%n", rule.name, rule.removed));
+        return report.toString();
+    }
+
+    private void initialise() {
+        next = new int[size];
+        previous = new int[size];
+        removed = new boolean[size];
+        for (int a = 0; a < size; a++) {
+            next[a] = a + 1 < size? a + 1 : IntermediateCode.NONE;
+            previous[a] = a - 1;
+        }
+        labelDefinitions = new int[code.labelCount()];
+        Arrays.fill(labelDefinitions, IntermediateCode.NONE);
+        labelReferences = new int[code.labelCount()];
+        definitions = new int[code.operandCount() + 1]; //room for a constant added by a rule
+        uses = new int[code.operandCount() + 1];
+        for (int a = 0; a < size; a++) {
+            if (code.opcode(a) == Opcode.LABEL)
+                labelDefinitions[code.target(a)] = a;
+            count(a, 1);
+        }
+    }
+
+    private void count(int instruction, int change) {
+        if (code.opcode(instruction) != Opcode.LABEL && code.target(instruction) != IntermediateCode.NONE)
+            labelReferences[code.target(instruction)] += change;
+        if (code.result(instruction) != IntermediateCode.NONE)
+            definitions[code.result(instruction)] += change;
+        if (code.left(instruction) != IntermediateCode.NONE)
+            uses[code.left(instruction)] += change;
+        if (code.right(instruction) != IntermediateCode.NONE)
+            uses[code.right(instruction)] += change;
+    }
+
+    private void remove(int instruction) {
+        count(instruction, -1);
+        removed[instruction] = true;
+        if (previous[instruction] != IntermediateCode.NONE)
+            next[previous[instruction]] = next[instruction];
+        if (next[instruction] != IntermediateCode.NONE)
+            previous[next[instruction]] = previous[instruction];
+    }
+
+    private void replace(int instruction, Opcode opcode, Operator operator, int result, int left, int right, int target) {
+        count(instruction, -1);
+        code.set(instruction, opcode, operator, result, left, right, target);
+        count(instruction, 1);
+    }
+
+    private int first() {
+        for (int a = 0; a < size; a++)
+            if (!removed[a])
+                return a;
+        return IntermediateCode.NONE;
+    }
+
+    /**
+     * First instruction after the given one that is not a label definition.
+     */
+    private int nextInstruction(int instruction) {
+        int a = next[instruction];
+        while (a != IntermediateCode.NONE && code.opcode(a) == Opcode.LABEL)
+            a = next[a];
+        return a;
+    }
+
+    /**
+     * Whether label is defined between instruction and the next instruction that is not a label.
+     */
+    private boolean labelFollows(int instruction, int label) {
+        for (int a = next[instruction]; a != IntermediateCode.NONE && code.opcode(a) == Opcode.LABEL; a = next[a])
+            if (code.target(a) == label)
+                return true;
+        return false;
+    }
+
+    /**
+     * A temporary assigned and read exactly once.
+     */
+    private boolean singleUseTemporary(int operand) {
+        return operand != IntermediateCode.NONE && code.operandKind(operand) == IntermediateCode.TEMP
+                && definitions[operand] == 1 && uses[operand] == 1;
+    }
+
+    /**
+     * Whether operand holds a string, a BASIC type error stays one only while copies keep their operand types.
+     */
+    private boolean isString(int operand) {
+        String name = code.operandName(operand);
+        return code.operandKind(operand) == IntermediateCode.CONSTANT? name.startsWith("\"") : name.endsWith("$");
+    }
+
+    private static boolean isJump(Opcode opcode) {
+        return opcode == Opcode.GOTO || opcode == Opcode.IF;
+    }
+
+    private abstract static class Rule {
+        final String name;
+        int removed = 0;
+
+        Rule(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Rewrites the window starting at instruction, true if anything changed.
+         */
+        abstract boolean apply(int instruction);
+    }
+
+    /**
+     * LET t = x followed by an instruction reading t: the instruction reads x instead, when x and t have the same type.
+     */
+    private class CopyIntoUse extends Rule {
+        CopyIntoUse() {
+            super("copy into use");
+        }
+
+        @Override
+        boolean apply(int instruction) {
+            if (code.opcode(instruction) != Opcode.LET || code.operator(instruction) != Operator.NONE)
+                return false;
+            int temporary = code.result(instruction);
+            int use = next[instruction];
+            if (!singleUseTemporary(temporary) || use == IntermediateCode.NONE || isString(code.left(instruction)) != isString(temporary))
+                return false;
+            Opcode opcode = code.opcode(use);
+            if (opcode != Opcode.LET && opcode != Opcode.IF && opcode != Opcode.PRINT)
+                return false;
+            int left = code.left(use);
+            int right = code.right(use);
+            if (left == temporary)
+                left = code.left(instruction);
+            else if (right == temporary)
+                right = code.left(instruction);
+            else
+                return false;
+            replace(use, opcode, code.operator(use), code.result(use), left, right, code.target(use));
+            remove(instruction);
+            this.removed++;
+            return true;
+        }
+    }
+
+    /**
+     * An instruction computing t followed by LET v = t: the instruction computes v, when v and t have the same type.
+     */
+    private class CopyFromResult extends Rule {
+        CopyFromResult() {
+            super("copy from result");
+        }
+
+        @Override
+        boolean apply(int instruction) {
+            if (code.opcode(instruction) != Opcode.LET)
+                return false;
+            int temporary = code.result(instruction);
+            int copy = next[instruction];
+            if (!singleUseTemporary(temporary) || copy == IntermediateCode.NONE || code.opcode(copy) != Opcode.LET
+                    || code.operator(copy) != Operator.NONE || code.left(copy) != temporary || isString(code.result(copy)) != isString(temporary))
+                return false;
+            int result = code.result(copy);
+            remove(copy);
+            replace(instruction, Opcode.LET, code.operator(instruction), result, code.left(instruction), code.right(instruction), IntermediateCode.NONE);
+            this.removed++;
+            return true;
+        }
+    }
+
+    /**
+     * LET x = x.
+     */
+    private class SelfCopy extends Rule {
+        SelfCopy() {
+            super("self copy");
+        }
+
+        @Override
+        boolean apply(int instruction) {
+            if (code.opcode(instruction) != Opcode.LET || code.operator(instruction) != Operator.NONE
+                    || code.result(instruction) != code.left(instruction))
+                return false;
+            remove(instruction);
+            this.removed++;
+            return true;
+        }
+    }
+
+    /**
+     * A jump to a label defined right after it.
+     */
+    private class JumpToNext extends Rule {
+        JumpToNext() {
+            super("jump to next");
+        }
+
+        @Override
+        boolean apply(int instruction) {
+            if (!isJump(code.opcode(instruction)) || !labelFollows(instruction, code.target(instruction)))
+                return false;
+            remove(instruction);
+            this.removed++;
+            return true;
+        }
+    }
+
+    /**
+     * A jump to a GOTO jumps to where that GOTO goes, a GOTO to a RETURN or END is replaced by it.
+     */
+    private class JumpToJump extends Rule {
+        JumpToJump() {
+            super("jump to jump");
+        }
+
+        @Override
+        boolean apply(int instruction) {
+            Opcode opcode = code.opcode(instruction);
+            if (!isJump(opcode))
+                return false;
+            int label = code.target(instruction);
+            int target = label;
+            for (int steps = 0; ; steps++) {
+                int definition = labelDefinitions[target];
+                int destination = definition == IntermediateCode.NONE? IntermediateCode.NONE : nextInstruction(definition);
+                if (destination == IntermediateCode.NONE)
+                    break;
+                if (code.opcode(destination) == Opcode.GOTO) {
+                    if (code.target(destination) == label || steps > labelDefinitions.length)
+                        return false; //a loop of jumps
+                    target = code.target(destination);
+                } else {
+                    if (target == label && opcode == Opcode.GOTO
+                            && (code.opcode(destination) == Opcode.RETURN || code.opcode(destination) == Opcode.END)) {
+                        replace(instruction, code.opcode(destination), Operator.NONE, IntermediateCode.NONE, IntermediateCode.NONE, IntermediateCode.NONE, IntermediateCode.NONE);
+                        return true;
+                    }
+                    break;
+                }
+            }
+            if (target == label)
+                return false;
+            replace(instruction, opcode, code.operator(instruction), code.result(instruction), code.left(instruction), code.right(instruction), target);
+            return true;
+        }
+    }
+
+    /**
+     * IF c THEN GOTO L1 followed by GOTO L2 and the definition of L1: IF NOT c THEN GOTO L2.
+     */
+    private class InvertBranch extends Rule {
+        InvertBranch() {
+            super("invert branch");
+        }
+
+        @Override
+        boolean apply(int instruction) {
+            if (code.opcode(instruction) != Opcode.IF)
+                return false;
+            int jump = next[instruction];
+            if (jump == IntermediateCode.NONE || code.opcode(jump) != Opcode.GOTO || !labelFollows(jump, code.target(instruction)))
+                return false;
+            Operator operator = code.operator(instruction);
+            int right = code.right(instruction);
+            if (operator == Operator.NONE) { //a boolean variable is false when it is zero
+                operator = Operator.EQ;
+                right = code.constant("0");
+                ensureOperand(right);
+            } else {
+                operator = operator.negated();
+            }
+            int target = code.target(jump);
+            remove(jump);
+            replace(instruction, Opcode.IF, operator, IntermediateCode.NONE, code.left(instruction), right, target);
+            this.removed++;
+            return true;
+        }
+    }
+
+    /**
+     * Instructions after a GOTO, RETURN or END that no label leads to.
+     */
+    private class Unreachable extends Rule {
+        Unreachable() {
+            super("unreachable");
+        }
+
+        @Override
+        boolean apply(int instruction) {
+            Opcode opcode = code.opcode(instruction);
+            if (opcode != Opcode.GOTO && opcode != Opcode.RETURN && opcode != Opcode.END)
+                return false;
+            int following = next[instruction];
+            if (following == IntermediateCode.NONE || code.opcode(following) == Opcode.LABEL)
+                return false;
+            remove(following);
+            this.removed++;
+            return true;
+        }
+    }
+
+    /**
+     * A label nothing jumps to.
+     */
+    private class UnusedLabel extends Rule {
+        UnusedLabel() {
+            super("unused label");
+        }
+
+        @Override
+        boolean apply(int instruction) {
+            if (code.opcode(instruction) != Opcode.LABEL || labelReferences[code.target(instruction)] != 0)
+                return false;
+            labelDefinitions[code.target(instruction)] = IntermediateCode.NONE;
+            remove(instruction);
+            this.removed++;
+            return true;
+        }
+    }
+
+    private void ensureOperand(int operand) {
+        if (operand >= uses.length) {
+            uses = Arrays.copyOf(uses, operand + 1);
+            definitions = Arrays.copyOf(definitions, operand + 1);
+        }
+    }
+}
@@ -0,0 +1,257 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Benchmark of every compiler phase over generated programs of growing size.
+ * Each shape is compiled at four sizes, doubling from the given one, and every phase reports its best time,
+ * its throughput in tree nodes per second, the bytes it allocates per node and per second, and how its time grows
+ * with the size: 1.0 is linear, 2.0 quadratic.
+ * Usage: java PhaseBenchmark [wide|deep|procedures|chain|recursion|all] [size] [rounds] [-O]
+ */
+public class PhaseBenchmark {
+    private static final String SHAPES[] = {"wide", "deep", "procedures", "chain", "recursion"};
+    private static final int SIZES = 4;
+
+    public static void main(String strings[]) {
+        String shape = "all";
+        int size = 250;
+        int rounds = 10;
+        boolean optimize = false;
+        int position = 0;
+        for (String argument : strings) {
+            if (argument.equals("-O"))
+                optimize = true;
+            else if (position++ == 0)
+                shape = argument;
+            else if (position == 2)
+                size = Integer.parseInt(argument);
+            else
+                rounds = Integer.parseInt(argument);
+        }
+        for (String name : SHAPES)
+            if (shape.equals("all") || shape.equals(name))
+                measure(name, size, rounds, optimize);
+    }
+
+    private static void measure(String shape, int size, int rounds, boolean optimize) {
+        ArrayList<String> phases = new ArrayList<>();
+        long nanos[][] = new long[SIZES][];
+        long bytes[][] = new long[SIZES][];
+        int nodes[] = new int[SIZES];
+        for (int s = 0; s < SIZES; s++) {
+            ArrayList<String> lines = generate(shape, size << s);
+            nodes[s] = lines.size();
+            for (int warmup = 0; warmup < 3; warmup++)
+                compile(lines, optimize);
+            for (int round = 0; round < rounds; round++) {
+                PhaseTimer timer = compile(lines, optimize);
+                if (nanos[s] == null) {
+                    nanos[s] = new long[timer.count()];
+                    bytes[s] = new long[timer.count()];
+                    Arrays.fill(nanos[s], Long.MAX_VALUE);
+                    if (s == 0)
+                        for (int a = 0; a < timer.count(); a++)
+                            phases.add(timer.name(a));
+                }
+                for (int a = 0; a < timer.count(); a++) {
+                    nanos[s][a] = Math.min(nanos[s][a], timer.nanos(a));
+                    bytes[s][a] += timer.bytes(a) / rounds;
+                }
+            }
+        }
+
+        int last = SIZES - 1;
+        System.out.println(String.format("%s, %,d to %,d nodes", shape, nodes[0], nodes[last]));
+        StringBuilder header = new StringBuilder(String.format("  %-10s", "phase"));
+        for (int s = 0; s < SIZES; s++)
+            header.append(String.format(" %9s", "ms@" + (size << s)));
+        header.append(String.format(" %14s %10s %10s %7s", "nodes/s", "bytes/node", "MB/s", "growth"));
+        System.out.println(header);
+        for (int a = 0; a < phases.size(); a++) {
+            StringBuilder row = new StringBuilder(String.format("  %-10s", phases.get(a)));
+            for (int s = 0; s < SIZES; s++)
+                row.append(String.format(" %9.3f", nanos[s][a] / 1e6));
+            double seconds = Math.max(nanos[last][a], 1) / 1e9;
+            double growth = Math.log((double) Math.max(nanos[last][a], 1) / Math.max(nanos[0][a], 1)) / Math.log((double) nodes[last] / nodes[0]);
+            row.append(String.format(" %,14.0f %10.1f %10.1f %7.2f", nodes[last] / seconds,
+                    (double) bytes[last][a] / nodes[last], bytes[last][a] / seconds / 1e6, growth));
+            System.out.println(row);
+        }
+        System.out.println();
+    }
+
+    /**
+     * Runs every phase on a fresh tree, the semantic passes rename its values.
+     */
+    private static PhaseTimer compile(ArrayList<String> lines, boolean optimize) {
+        PhaseTimer timer = new PhaseTimer();
+        timer.start("tree");
+        AbstractTree tree = new AbstractTree(lines);
+        timer.stop();
+        SemanticTable semanticTable = new SemanticTable(tree, false, timer);
+        new Translator(tree, semanticTable, optimize, timer);
+        return timer;
+    }
+
+    static ArrayList<String> generate(String shape, int size) {
+        switch (shape) {
+            case "wide":
+                return Benchmark.generateWideCode(size);
+            case "deep":
+                return generateDeepNesting(size);
+            case "procedures":
+                return generateProcedures(size, false);
+            case "chain":
+                return generateProcedures(size, true);
+            case "recursion":
+                return generateRecursion(size);
+            default:
+                throw new IllegalArgumentException("Unknown shape " + shape);
+        }
+    }
+
+    /**
+     * A while loop holding an if holding a while loop and so on, depth deep, every level counting a variable up.
+     */
+    static ArrayList<String> generateDeepNesting(int depth) {
+        ProgramBuilder program = new ProgramBuilder();
+        int code = program.mainCode();
+        program.add(code, program.node("NumDecl", "g"));
+        program.add(code, program.assign("g", program.node("Number", "0")));
+        int inner = code;
+        for (int a = 0; a < depth; a++) {
+            int statement = program.node(a % 2 == 0? "WhileLoop" : "CondBranch");
+            program.add(inner, statement);
+            program.add(statement, program.binary("LessExpr", program.node("Var", "g"), program.node("Number", Integer.toString(a + 1))));
+            inner = program.node("Code");
+            program.add(statement, inner);
+            program.add(inner, program.assign("g", program.binary("AddExpr", program.node("Var", "g"), program.node("Number", "1"))));
+        }
+        program.add(code, program.output("g"));
+        return program.lines();
+    }
+
+    /**
+     * Main calls count procedures that each add to a global. With chain set main calls the first procedure and
+     * every procedure calls the next, otherwise main calls every procedure.
+     */
+    static ArrayList<String> generateProcedures(int count, boolean chain) {
+        ProgramBuilder program = new ProgramBuilder();
+        int code = program.mainCode();
+        program.add(code, program.node("NumDecl", "g"));
+        program.add(code, program.node("Input", program.node("Var", "g")));
+        for (int a = 0; a < (chain? 1 : count); a++)
+            program.add(code, program.node("Call", "p" + a));
+        program.add(code, program.output("g"));
+        for (int a = 0; a < count; a++) {
+            int body = program.procedure("p" + a);
+            program.add(body, program.assign("g", program.binary("AddExpr", program.node("Var", "g"), program.node("Number", Integer.toString(a)))));
+            if (chain && a + 1 < count)
+                program.add(body, program.node("Call", "p" + (a + 1)));
+        }
+        return program.lines();
+    }
+
+    /**
+     * count procedures calling each other in a ring until a global reaches a limit read from input.
+     */
+    static ArrayList<String> generateRecursion(int count) {
+        ProgramBuilder program = new ProgramBuilder();
+        int code = program.mainCode();
+        program.add(code, program.node("NumDecl", "g"));
+        program.add(code, program.node("NumDecl", "limit"));
+        program.add(code, program.node("Input", program.node("Var", "limit")));
+        program.add(code, program.assign("g", program.node("Number", "0")));
+        program.add(code, program.node("Call", "p0"));
+        program.add(code, program.output("g"));
+        for (int a = 0; a < count; a++) {
+            int body = program.procedure("p" + a);
+            program.add(body, program.assign("g", program.binary("AddExpr", program.node("Var", "g"), program.node("Number", "1"))));
+            int branch = program.node("CondBranch");
+            program.add(body, branch);
+            program.add(branch, program.binary("LessExpr", program.node("Var", "g"), program.node("Var", "limit")));
+            int then = program.node("Code");
+            program.add(branch, then);
+            program.add(then, program.node("Call", "p" + (a + 1) % count));
+        }
+        return program.lines();
+    }
+
+    /**
+     * Writes abstract tree lines, numbering nodes as they are created so parents come before their children.
+     */
+    private static class ProgramBuilder {
+        private ArrayList<StringBuilder> nodes = new ArrayList<>();
+        private int procDefs = AbstractTree.NONE;
+
+        ProgramBuilder() {
+            node("Prog");
+        }
+
+        int node(String type) {
+            nodes.add(new StringBuilder().append(nodes.size()).append(' ').append(type));
+            return nodes.size() - 1;
+        }
+
+        int node(String type, String value) {
+            nodes.add(new StringBuilder().append(nodes.size()).append(' ').append(type).append("(\"").append(value).append("\")"));
+            return nodes.size() - 1;
+        }
+
+        int node(String type, int child) {
+            int node = node(type);
+            add(node, child);
+            return node;
+        }
+
+        void add(int parent, int child) {
+            nodes.get(parent).append(' ').append(child);
+        }
+
+        int mainCode() {
+            int code = node("Code");
+            add(0, code);
+            return code;
+        }
+
+        /**
+         * Defines a procedure and returns its code.
+         */
+        int procedure(String name) {
+            if (procDefs == AbstractTree.NONE) {
+                procDefs = node("ProcDefs");
+                add(0, procDefs);
+            }
+            int procedure = node("Proc", name);
+            add(procDefs, procedure);
+            int prog = node("Prog");
+            add(procedure, prog);
+            int code = node("Code");
+            add(prog, code);
+            return code;
+        }
+
+        int binary(String type, int left, int right) {
+            int node = node(type, left);
+            add(node, right);
+            return node;
+        }
+
+        int assign(String var, int value) {
+            int assign = node("Assign", node("Var", var));
+            add(assign, value);
+            return assign;
+        }
+
+        int output(String var) {
+            return node("Output", node("Var", var));
+        }
+
+        ArrayList<String> lines() {
+            ArrayList<String> lines = new ArrayList<>(nodes.size());
+            for (StringBuilder node : nodes)
+                lines.add(node.toString());
+            return lines;
+        }
+    }
+}
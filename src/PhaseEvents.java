@@ -0,0 +1,112 @@
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The JFR events of a PhaseTimer: compiler.Phase with the phase name, its allocated bytes and node visits,
+ * and compiler.Counter with an addition to a work counter. The event types are made with jdk.jfr.EventFactory
+ * through reflection, so the compiler builds for and runs on JVMs without JFR, where create returns null.
+ */
+class PhaseEvents {
+    private final Object phaseFactory;
+    private final Object counterFactory;
+    private final Method newEvent;
+    private final Method begin;
+    private final Method end;
+    private final Method shouldCommit;
+    private final Method set;
+    private final Method commit;
+
+    /**
+     * The events, null when the JVM has no jdk.jfr.Event.
+     */
+    static PhaseEvents create() {
+        try {
+            return new PhaseEvents();
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException e) { //no JFR, or one that refuses the types
+            return null;
+        }
+    }
+
+    private PhaseEvents() throws ReflectiveOperationException {
+        Class<?> event = Class.forName("jdk.jfr.Event");
+        Class<?> factory = Class.forName("jdk.jfr.EventFactory");
+        Constructor<?> annotation = Class.forName("jdk.jfr.AnnotationElement").getConstructor(Class.class, Object.class);
+        Constructor<?> field = Class.forName("jdk.jfr.ValueDescriptor").getConstructor(Class.class, String.class, List.class);
+        Method create = factory.getMethod("create", List.class, List.class);
+
+        Class<?> label = Class.forName("jdk.jfr.Label");
+        List<Object> eventAnnotations = Arrays.asList(
+                annotation.newInstance(Class.forName("jdk.jfr.Category"), new String[]{"Compiler"}),
+                annotation.newInstance(Class.forName("jdk.jfr.StackTrace"), false));
+        List<Object> phaseAnnotations = new ArrayList<>(eventAnnotations);
+        phaseAnnotations.add(annotation.newInstance(Class.forName("jdk.jfr.Name"), "compiler.Phase"));
+        phaseAnnotations.add(annotation.newInstance(label, "Compiler Phase"));
+        List<Object> phaseFields = Arrays.asList(
+                field.newInstance(String.class, "phase", Collections.singletonList(annotation.newInstance(label, "Phase"))),
+                field.newInstance(long.class, "allocatedBytes", Arrays.asList(annotation.newInstance(label, "Allocated Bytes"),
+                        annotation.newInstance(Class.forName("jdk.jfr.DataAmount"), "BYTES"))),
+                field.newInstance(long.class, "visits", Collections.singletonList(annotation.newInstance(label, "Node Visits"))));
+        phaseFactory = create.invoke(null, phaseAnnotations, phaseFields);
+
+        List<Object> counterAnnotations = new ArrayList<>(eventAnnotations);
+        counterAnnotations.add(annotation.newInstance(Class.forName("jdk.jfr.Name"), "compiler.Counter"));
+        counterAnnotations.add(annotation.newInstance(label, "Compiler Counter"));
+        List<Object> counterFields = Arrays.asList(
+                field.newInstance(String.class, "counter", Collections.singletonList(annotation.newInstance(label, "Counter"))),
+                field.newInstance(long.class, "value", Collections.singletonList(annotation.newInstance(label, "Value"))));
+        counterFactory = create.invoke(null, counterAnnotations, counterFields);
+
+        newEvent = factory.getMethod("newEvent");
+        begin = event.getMethod("begin");
+        end = event.getMethod("end");
+        shouldCommit = event.getMethod("shouldCommit");
+        set = event.getMethod("set", int.class, Object.class);
+        commit = event.getMethod("commit");
+    }
+
+    /**
+     * A phase event with its start time taken.
+     */
+    Object beginPhase() {
+        Object event = invoke(newEvent, phaseFactory);
+        invoke(begin, event);
+        return event;
+    }
+
+    /**
+     * Ends the event of a phase and commits it when a recording wants it.
+     */
+    void endPhase(Object event, String phase, long allocatedBytes, long visits) {
+        invoke(end, event);
+        if ((Boolean) invoke(shouldCommit, event)) {
+            invoke(set, event, 0, phase);
+            invoke(set, event, 1, allocatedBytes);
+            invoke(set, event, 2, visits);
+            invoke(commit, event);
+        }
+    }
+
+    void counter(String counter, long value) {
+        Object event = invoke(newEvent, counterFactory);
+        if ((Boolean) invoke(shouldCommit, event)) {
+            invoke(set, event, 0, counter);
+            invoke(set, event, 1, value);
+            invoke(commit, event);
+        }
+    }
+
+    private static Object invoke(Method method, Object target, Object... arguments) {
+        try {
+            return method.invoke(target, arguments);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
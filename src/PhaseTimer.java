@@ -0,0 +1,136 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Wall time, allocated bytes and tree node visits of the phases of a compilation, one phase running at a time,
+ * and named work counters. Every phase and counter is also committed as a JFR event when the JVM has JFR and a recording is running.
+ * Allocation is read from the thread running the phase, so work handed to other threads, like a parallel populate, is not counted.
+ * Visits count the walks of visitors given this timer that finished during the phase, on any thread.
+ * A phase started again adds to its earlier totals.
+ */
+public class PhaseTimer {
+    private static final com.sun.management.ThreadMXBean THREADS = threads();
+    private static final PhaseEvents EVENTS = PhaseEvents.create(); //null without JFR
+
+    private ArrayList<String> names = new ArrayList<>();
+    private long nanos[] = new long[8];
+    private long bytes[] = new long[8];
+    private long visits[] = new long[8];
+    private LinkedHashMap<String, Long> counters = new LinkedHashMap<>();
+    private int current = -1;
+    private long startNanos;
+    private long startBytes;
+    private long startVisits;
+    private final AtomicLong visited = new AtomicLong(); //nodes entered by the walks counted here
+    private Object event; //of the running phase, null without JFR
+
+    public void start(String phase) {
+        if (current >= 0)
+            stop();
+        current = names.indexOf(phase);
+        if (current < 0) {
+            current = names.size();
+            names.add(phase);
+            if (current == nanos.length) {
+                nanos = Arrays.copyOf(nanos, 2 * current);
+                bytes = Arrays.copyOf(bytes, 2 * current);
+                visits = Arrays.copyOf(visits, 2 * current);
+            }
+        }
+        event = EVENTS == null? null : EVENTS.beginPhase();
+        startVisits = visited.get();
+        startBytes = allocatedBytes();
+        startNanos = System.nanoTime();
+    }
+
+    public void stop() {
+        if (current < 0)
+            return;
+        long elapsed = System.nanoTime() - startNanos;
+        long allocated = allocatedBytes() - startBytes;
+        long visitedNodes = visited.get() - startVisits;
+        nanos[current] += elapsed;
+        bytes[current] += allocated;
+        visits[current] += visitedNodes;
+        if (event != null)
+            EVENTS.endPhase(event, names.get(current), allocated, visitedNodes);
+        event = null;
+        current = -1;
+    }
+
+    /**
+     * Adds to a named work counter.
+     */
+    public void add(String counter, long value) {
+        Long total = counters.get(counter);
+        counters.put(counter, total == null? value : total + value);
+        if (EVENTS != null)
+            EVENTS.counter(counter, value);
+    }
+
+    /**
+     * Adds the nodes a walk entered, from any thread.
+     */
+    public void addVisits(long count) {
+        visited.addAndGet(count);
+    }
+
+    public int count() {
+        return names.size();
+    }
+
+    public String name(int phase) {
+        return names.get(phase);
+    }
+
+    public long nanos(int phase) {
+        return nanos[phase];
+    }
+
+    /**
+     * Bytes allocated during the phase, 0 where the JVM does not measure allocation.
+     */
+    public long bytes(int phase) {
+        return bytes[phase];
+    }
+
+    public long visits(int phase) {
+        return visits[phase];
+    }
+
+    public long counter(String counter) {
+        Long total = counters.get(counter);
+        return total == null? 0 : total;
+    }
+
+    /**
+     * One line per phase in the order they first ran, then one per counter.
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder();
+        for (int a = 0; a < names.size(); a++)
+            report.append(String.format("%-16s %10.3f ms %,14d bytes %,12d visits%n", names.get(a), nanos[a] / 1e6, bytes[a], visits[a]));
+        for (Map.Entry<String, Long> counter : counters.entrySet())
+            report.append(String.format("%-16s %,d%n", counter.getKey(), counter.getValue()));
+        return report.toString();
+    }
+
+    private static long allocatedBytes() {
+        return THREADS == null? 0 : THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static com.sun.management.ThreadMXBean threads() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean))
+            return null;
+        com.sun.management.ThreadMXBean hotSpotThreads = (com.sun.management.ThreadMXBean) threads;
+        if (!hotSpotThreads.isThreadAllocatedMemorySupported())
+            return null;
+        hotSpotThreads.setThreadAllocatedMemoryEnabled(true);
+        return hotSpotThreads;
+    }
+}
@@ -0,0 +1,277 @@
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.UUID;
+
+/**
+ * Compile results on disk, addressed by a SHA-256 of the compiler build, the options and the input text.
+ * An entry holds the texts a compile prints and writes: the semantic report, the intermediate code, the numbered BASIC
+ * and, when optimising, the optimisation report. Entries are written next to their final name and moved in place,
+ * so processes sharing the directory never see a partial one. Reading an entry marks it used, and once the entries
+ * outgrow the size cap the least recently used are removed. Hits and misses are counted in a file of the directory,
+ * updated under a file lock so concurrent processes add up.
+ */
+public class ResultCache {
+    private static final int FORMAT = 1; //layout of an entry
+    private static final byte BUILD[] = build(); //hash of the compiler classes, any change to them may change the output
+    private static final int MAGIC = 0x43525053; //"SPRC"
+    private static final String SUFFIX = ".result";
+    private static final long STALE_MILLIS = 60 * 60 * 1000; //age of a temporary file left behind by a dead process
+
+    private final Path directory;
+    private final long maxBytes;
+
+    public ResultCache(String directory, long maxBytes) throws IOException {
+        this.directory = Paths.get(directory).toAbsolutePath().normalize();
+        this.maxBytes = maxBytes;
+        Files.createDirectories(this.directory);
+    }
+
+    /**
+     * Key of compiling the file with the options, a hex SHA-256. source tells SPL source from abstract tree text.
+     */
+    public static String key(String fileName, boolean optimize, boolean source) throws IOException {
+        MessageDigest digest = sha256();
+        digest.update(BUILD);
+        digest.update(ByteBuffer.allocate(8).putInt(optimize? 1 : 0).putInt(source? 1 : 0).array());
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            digest.update(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest())
+            key.append(String.format("%02x", b));
+        return key.toString();
+    }
+
+    /**
+     * The texts stored under key, null if there are none. Counts a hit or a miss.
+     */
+    public String[] get(String key) throws IOException {
+        String results[] = read(directory.resolve(key + SUFFIX), key);
+        count(results != null);
+        return results;
+    }
+
+    /**
+     * Stores the texts under key, then trims the cache to its size cap. A null text is stored as empty.
+     */
+    public void put(String key, String results[]) throws IOException {
+        byte keyBytes[] = key.getBytes(StandardCharsets.US_ASCII);
+        byte encoded[][] = new byte[results.length][];
+        int size = 12 + keyBytes.length + 4;
+        for (int a = 0; a < results.length; a++) {
+            encoded[a] = (results[a] == null? "" : results[a]).getBytes(StandardCharsets.UTF_8);
+            size += 4 + encoded[a].length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(FORMAT).putInt(keyBytes.length).put(keyBytes).putInt(encoded.length);
+        for (byte text[] : encoded)
+            buffer.putInt(text.length).put(text);
+        buffer.flip();
+
+        Path temporary = Files.createTempFile(directory, key, ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining())
+                    channel.write(buffer);
+            }
+            Files.move(temporary, directory.resolve(key + SUFFIX), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        trim();
+    }
+
+    /**
+     * Total hits and misses of every process using the directory.
+     */
+    public long[] counters() throws IOException {
+        try (FileChannel channel = FileChannel.open(directory.resolve("counters"), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            FileLock lock = channel.lock();
+            try {
+                return readCounters(channel);
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * Hits, misses, entries and their bytes on one line.
+     */
+    public String summary() throws IOException {
+        long counters[] = counters();
+        long bytes = 0;
+        ArrayList<Path> entries = entries();
+        for (Path entry : entries) {
+            try {
+                bytes += Files.size(entry);
+            } catch (NoSuchFileException e) {
+                //removed by another process
+            }
+        }
+        return String.format("result cache     %,d hits, %,d misses, %,d entries, %,d bytes%n", counters[0], counters[1], entries.size(), bytes);
+    }
+
+    private static String[] read(Path path, String key) throws IOException {
+        byte content[];
+        try {
+            content = Files.readAllBytes(path);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        try {
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (NoSuchFileException e) {
+            //evicted meanwhile, the content read is still whole
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(content).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT)
+                return null;
+            byte storedKey[] = new byte[buffer.getInt()];
+            buffer.get(storedKey);
+            if (!key.equals(new String(storedKey, StandardCharsets.US_ASCII)))
+                return null;
+            String results[] = new String[buffer.getInt()];
+            for (int a = 0; a < results.length; a++) {
+                byte text[] = new byte[buffer.getInt()];
+                buffer.get(text);
+                results[a] = new String(text, StandardCharsets.UTF_8);
+            }
+            return buffer.hasRemaining()? null : results;
+        } catch (RuntimeException e) { //truncated or not an entry
+            return null;
+        }
+    }
+
+    private void count(boolean hit) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory.resolve("counters"), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            FileLock lock = channel.lock();
+            try {
+                long counters[] = readCounters(channel);
+                counters[hit? 0 : 1]++;
+                ByteBuffer buffer = ByteBuffer.allocate(16).putLong(counters[0]).putLong(counters[1]);
+                buffer.flip();
+                while (buffer.hasRemaining())
+                    channel.write(buffer, buffer.position());
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    private static long[] readCounters(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) > 0)
+            ;
+        if (buffer.hasRemaining())
+            return new long[2]; //new or damaged, start over
+        buffer.flip();
+        return new long[]{buffer.getLong(), buffer.getLong()};
+    }
+
+    /**
+     * Removes the least recently used entries until the rest fit under the cap, and temporary files abandoned long ago.
+     * Another process may be trimming at the same time, a file it removed first is skipped.
+     */
+    private void trim() throws IOException {
+        final ArrayList<Path> entries = entries();
+        final ArrayList<Long> times = new ArrayList<>();
+        ArrayList<Long> sizes = new ArrayList<>();
+        ArrayList<Integer> order = new ArrayList<>();
+        long total = 0;
+        for (Path entry : entries) {
+            try {
+                times.add(Files.getLastModifiedTime(entry).toMillis());
+                sizes.add(Files.size(entry));
+            } catch (NoSuchFileException e) {
+                times.add(Long.MIN_VALUE);
+                sizes.add(0L);
+            }
+            order.add(order.size());
+            total += sizes.get(sizes.size() - 1);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(times.get(a), times.get(b));
+            }
+        });
+        for (int a = 0; a < order.size() && total > maxBytes; a++) {
+            int entry = order.get(a);
+            Files.deleteIfExists(entries.get(entry));
+            total -= sizes.get(entry);
+        }
+
+        long now = System.currentTimeMillis();
+        try (DirectoryStream<Path> temporaries = Files.newDirectoryStream(directory, "*.tmp")) {
+            for (Path temporary : temporaries) {
+                try {
+                    if (now - Files.getLastModifiedTime(temporary).toMillis() > STALE_MILLIS)
+                        Files.deleteIfExists(temporary);
+                } catch (NoSuchFileException e) {
+                    //finished or removed meanwhile
+                }
+            }
+        }
+    }
+
+    /**
+     * SHA-256 of the class files of the compiler, or of the jar holding them, read from where ResultCache was loaded.
+     * Where they cannot be read the hash is random, so the process reuses only its own results.
+     */
+    private static byte[] build() {
+        MessageDigest digest = sha256();
+        try {
+            Path location = Paths.get(ResultCache.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            if (Files.isDirectory(location)) {
+                ArrayList<Path> classes = new ArrayList<>();
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(location, "*.class")) {
+                    for (Path file : stream)
+                        classes.add(file);
+                }
+                Collections.sort(classes);
+                for (Path file : classes) {
+                    digest.update(file.getFileName().toString().getBytes(StandardCharsets.UTF_8));
+                    digest.update(Files.readAllBytes(file));
+                }
+            } else {
+                digest.update(Files.readAllBytes(location));
+            }
+        } catch (IOException | URISyntaxException | RuntimeException e) { //no code source, or not a file
+            digest.update(UUID.randomUUID().toString().getBytes(StandardCharsets.US_ASCII));
+        }
+        return digest.digest();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is missing", e);
+        }
+    }
+
+    private ArrayList<Path> entries() throws IOException {
+        ArrayList<Path> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path entry : stream)
+                entries.add(entry);
+        }
+        return entries;
+    }
+}
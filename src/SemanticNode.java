@@ -1,5 +1,3 @@
-import jdk.nashorn.internal.runtime.regexp.joni.constants.NodeType;
-
 import javax.naming.Name;
 
 public class SemanticNode {
@@ -1,295 +1,859 @@
-import jdk.nashorn.internal.runtime.regexp.joni.constants.NodeType;
-
 import java.util.*;
+import java.util.concurrent.*;
 
 public class SemanticTable {
     public SemanticNode table[];
-    private ArrayList<HashMap<String, Integer>> symbolTable = new ArrayList<>();
+    private SymbolTable symbolTable;
     private AbstractTree tree;
 
     private int scopeCount = 0;
     private int variableCount = 0;
     private int processCount = 0;
-    private int symbolBindOffset = 0;
+    private int procedureWalks = 0; //procedure bodies walked by the flow passes
+    private int names[]; //number of every declaration, the key of its variable in the flow tables
+    private int declarations[] = new int[16]; //the reverse
+    private int nameCount = 0;
+
+    private ArrayList<Integer> procedures = new ArrayList<>(); //proc nodes in document order
+    private HashMap<Integer, ProcedureSummary> summaries = new HashMap<>();
+    private ArrayList<ArrayList<Integer>> components = new ArrayList<>(); //strongly connected parts of the call graph, callees first
+    private ArrayDeque<Integer> calledProcedures = new ArrayDeque<>(); //procedures of the current component whose entry values changed
+    private int currentComponent = -1;
+
+    private static final int MOVES = 2; //changes other than up a variable of a summary may make before it is left unassigned
+
+    private final PhaseTimer timer; //counts the visits of the walks
+    private SemanticTable previous = null; //table of the tree this one was edited from, while the flow passes run
+    private TreeMatcher matcher = null;
+    private int reusedSummaries = 0;
 
     public SemanticTable(AbstractTree tree) {
-        table = new SemanticNode[tree.nodes.length];
+        this(tree, false);
+    }
+
+    /**
+     * Checks the tree, with parallel set the bodies of the top level procedures are populated concurrently.
+     */
+    public SemanticTable(AbstractTree tree, boolean parallel) {
+        this(tree, parallel, new PhaseTimer());
+    }
+
+    /**
+     * Checks the tree, timing the populate, rename and flow passes in timer.
+     */
+    public SemanticTable(AbstractTree tree, boolean parallel, PhaseTimer timer) {
+        this(tree, parallel, timer, null, null);
+    }
+
+    /**
+     * Checks a tree edited from the tree previous checked, matcher pairs their nodes, both are null for the first version.
+     * A procedure whose subtree is unchanged, whose names refer to the same declarations and whose callees all keep
+     * their summaries takes its flow summary from previous instead of being analysed again.
+     */
+    SemanticTable(AbstractTree tree, PhaseTimer timer, SemanticTable previous, TreeMatcher matcher) {
+        this(tree, false, timer, previous, matcher);
+    }
+
+    private SemanticTable(AbstractTree tree, boolean parallel, PhaseTimer timer, SemanticTable previous, TreeMatcher matcher) {
+        this.timer = timer;
+        table = new SemanticNode[tree.size()];
+        names = new int[tree.size()];
+        Arrays.fill(names, -1);
         this.tree = tree;
-        populateTable(tree.root, 0); //populate semantic table
-        reName(tree.root); //rename all variables
-        ArrayList<HashMap<String, Integer>> flowStartTable = new ArrayList<>();
-        pushFlowStack(flowStartTable);
-        establishFlow(tree.root, null, flowStartTable, new ArrayList<>()); //check variable flow
+        timer.start("populate");
+        symbolTable = new SymbolTable(tree.size());
+        new ScopeVisitor().walk(tree.root); //number procedure scopes
+        if (parallel)
+            populateParallel();
+        else
+            new PopulateVisitor(symbolTable, false).walk(tree.root); //populate semantic table
+        timer.start("rename");
+        new ReNameVisitor().walk(tree.root); //rename all variables
+        timer.start("flow");
+        this.previous = previous;
+        this.matcher = matcher;
+        establishFlow(); //check variable flow
+        this.previous = null; //keep no chain of earlier versions
+        this.matcher = null;
+        timer.stop();
+        timer.add("flow revisits", procedureWalks + reusedSummaries - 2 * procedures.size()); //each pass walks every body at least once
+        if (matcher != null)
+            timer.add("flow reused", reusedSummaries);
     }
 
-    private void populateTable(AbstractNode abstractNode, int scopeId) {
-        if (abstractNode == null)
-            return;
+    /**
+     * Creates the semantic nodes of procedure definitions and numbers their scopes in the order the populate pass reaches them,
+     * so procedure bodies can be populated in any order.
+     */
+    private class ScopeVisitor extends TreeVisitor {
+        ScopeVisitor() {
+            super(SemanticTable.this.tree, timer);
+        }
 
-        AbstractNodeType nodeType = abstractNode.type;
-        SemanticNode node;
-        if (table[abstractNode.id] != null) {
-            node = table[abstractNode.id];
-            scopeId = node.scopeId;
-        } else {
-            node = new SemanticNode(abstractNode.id, nodeType);
+        @Override
+        protected boolean enter(int abstractNode, int parent) {
+            switch (tree.type(abstractNode)) {
+                case Prog:
+                    if (tree.childCount(abstractNode) > 1) {
+                        int procDefs = tree.child(abstractNode, 1);
+                        table[procDefs] = newNode(procDefs, parent == AbstractTree.NONE? 0 : table[parent].scopeId);
+                        for (int a = tree.childCount(procDefs) - 1; a >= 0; a--)
+                            table[tree.child(procDefs, a)] = newNode(tree.child(procDefs, a), ++scopeCount);
+                    }
+                    break;
+                case Proc:
+                    procedures.add(abstractNode);
+                    summaries.put(abstractNode, new ProcedureSummary());
+                    break;
+                case Code: //code holds no procedure definitions
+                    return false;
+            }
+            return true;
+        }
+
+        private SemanticNode newNode(int abstractNode, int scopeId) {
+            SemanticNode node = new SemanticNode(abstractNode, tree.type(abstractNode));
             node.scopeId = scopeId;
-            node.snippet = abstractNode.val;
+            node.snippet = tree.val(abstractNode);
+            return node;
         }
-        table[abstractNode.id] = node;
-        switch (nodeType) {
-            case Call:
-                //Access of name
-                Integer declarationSource = getDeclarationSource(abstractNode.val);
-                node.usageSource = declarationSource;
-                break;
-            case Var:
-                //Access of name
-                declarationSource = getDeclarationSource(abstractNode.val);
-                node.usageSource = declarationSource;
-                if (declarationSource != null)
-                    node.nameType = table[declarationSource].nameType;
-                break;
-            case NumDecl:
-            case BoolDecl:
-            case StrDecl:
-                if (reDeclaration(abstractNode.val))
-                    table[abstractNode.id].errorMessage = "Redeclaration of Variable!";
-                node.usageSource = abstractNode.id; //find declaration node of variable
-                symbolTable.get(symbolTable.size() - 1 + symbolBindOffset).put(abstractNode.val, abstractNode.id); //insert declaration in symbol table
-                break;
-            case Prog:
-                symbolTable.add(new HashMap<>()); //push first layer of symbol table
-                if (abstractNode.children.length > 1) //if the prog has proc defs scan them first
-                    populateTableProcedures(abstractNode.children[1], scopeId);
-                for (AbstractNode childAbstractNode : abstractNode.children)
-                    populateTable(childAbstractNode, scopeId); //recursively call on children
-                symbolTable.remove(symbolTable.size() - 1); //pop layer of symbol table
-                break;
-            case ForLoop:
-                node.nameType = NameType.N;
-                symbolTable.add(new HashMap<>()); //push symbol table scope layer
-                node.usageSource = abstractNode.id; //forloop is variable declaration
-                node.snippet = abstractNode.children[0].children[0].val; //get name of variable
-                symbolTable.get(symbolTable.size() - 1).put(abstractNode.children[0].children[0].val, abstractNode.id); //insert for loop control variable in its own scope
-                symbolBindOffset = -1; //negative offset that new variables wont be declared in control variable scope layer
-                for (AbstractNode childAbstractNode : abstractNode.children)
-                    populateTable(childAbstractNode, scopeId); //recursive call with increased scope id
+    }
 
+    /**
+     * Populates the main program, then the body of every top level procedure as a task on a fork join pool.
+     * The bodies only see the declarations of the main program and the top level procedures, every task resolves
+     * names against its own copy of that symbol table and writes the semantic nodes of its own subtree.
+     */
+    private void populateParallel() {
+        PopulateVisitor mainVisitor = new PopulateVisitor(symbolTable, true);
+        mainVisitor.walk(tree.root);
+        if (mainVisitor.snapshot == null)
+            return;
 
-                symbolTable.remove(symbolTable.size() - 1); //pop symbol table scope layer
-                symbolBindOffset = 0; //remove offset so new variables will be declared in top scope layer
-                break;
-            default:
-                for (AbstractNode childAbstractNode : abstractNode.children)
-                    populateTable(childAbstractNode, scopeId); //recursively call on children
-                break;
+        final SymbolTable snapshot = mainVisitor.snapshot;
+        final ThreadLocal<SymbolTable> symbolTables = new ThreadLocal<SymbolTable>() { //a task leaves the table as it found it, so workers reuse one copy
+            @Override
+            protected SymbolTable initialValue() {
+                return new SymbolTable(snapshot);
+            }
+        };
+        ArrayList<Callable<Void>> tasks = new ArrayList<>();
+        int procDefs = tree.child(tree.root, 1);
+        for (int a = 0; a < tree.childCount(procDefs); a++) {
+            final int body = tree.child(tree.child(procDefs, a), 0);
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    new PopulateVisitor(symbolTables.get(), false).walk(body);
+                    return null;
+                }
+            });
         }
 
-        establishType(abstractNode);
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            for (Future<Void> result : pool.invokeAll(tasks))
+                result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Semantic analysis interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Semantic analysis of a procedure failed", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
     }
 
-    private void populateTableProcedures(AbstractNode abstractNode, int scopeId) {
-        if (abstractNode == null)
-            return;
-        AbstractNodeType nodeType = abstractNode.type;
-        SemanticNode node = new SemanticNode(abstractNode.id, nodeType);
-        node.scopeId = scopeId;
-        node.snippet = abstractNode.val;
-        table[abstractNode.id] = node;
-        switch (nodeType) {
-            case ProcDefs:
-                for(int a = abstractNode.children.length - 1; a >= 0; a--)
-                    populateTableProcedures(abstractNode.children[a], ++scopeCount);
-                break;
-            case Proc:
-                if (reDeclaration(abstractNode.val))
-                    table[abstractNode.id].errorMessage = "Redeclaration of Procedure!";
-                node.usageSource = abstractNode.id;
-                symbolTable.get(symbolTable.size() - 1 + symbolBindOffset).put(abstractNode.val, abstractNode.id); //insert declaration in symbol table
+    /**
+     * Creates the semantic node of every abstract node and resolves names against the symbol table scopes.
+     */
+    private class PopulateVisitor extends TreeVisitor {
+        private final SymbolTable symbolTable;
+        private final boolean stopAtProcedures; //leave the top level procedures to tasks, keeping the symbol table they see
+        private SymbolTable snapshot = null;
+        private int symbolBindOffset = 0;
+
+        PopulateVisitor(SymbolTable symbolTable, boolean stopAtProcedures) {
+            super(SemanticTable.this.tree, timer);
+            this.symbolTable = symbolTable;
+            this.stopAtProcedures = stopAtProcedures;
+        }
+
+        @Override
+        protected boolean enter(int abstractNode, int parent) {
+            int treeParent = tree.parent(abstractNode);
+            int scopeId = (treeParent == AbstractTree.NONE? 0 : table[treeParent].scopeId); //children inherit the scope of their parent
+            AbstractNodeType nodeType = tree.type(abstractNode);
+            SemanticNode node;
+            if (table[abstractNode] != null) {
+                node = table[abstractNode];
+            } else {
+                node = new SemanticNode(abstractNode, nodeType);
+                node.scopeId = scopeId;
+                node.snippet = tree.val(abstractNode);
+            }
+            table[abstractNode] = node;
+            switch (nodeType) {
+                case Call:
+                    //Access of name
+                    Integer declarationSource = getDeclarationSource(abstractNode);
+                    node.usageSource = declarationSource;
+                    break;
+                case Var:
+                    //Access of name
+                    declarationSource = getDeclarationSource(abstractNode);
+                    node.usageSource = declarationSource;
+                    if (declarationSource != null)
+                        node.nameType = table[declarationSource].nameType;
+                    break;
+                case NumDecl:
+                case BoolDecl:
+                case StrDecl:
+                    if (reDeclaration(abstractNode))
+                        table[abstractNode].errorMessage = "Redeclaration of Variable!";
+                    node.usageSource = abstractNode; //find declaration node of variable
+                    symbolTable.declare(tree.valueId(abstractNode), abstractNode, symbolBindOffset); //insert declaration in symbol table
+                    break;
+                case Prog:
+                    symbolTable.push(); //push first layer of symbol table
+                    if (tree.childCount(abstractNode) > 1) //if the prog has proc defs scan them first
+                        populateTableProcedures(tree.child(abstractNode, 1));
+                    break;
+                case ProcDefs:
+                    if (stopAtProcedures && treeParent == tree.root) {
+                        snapshot = new SymbolTable(symbolTable);
+                        return false;
+                    }
+                    break;
+                case ForLoop:
+                    node.nameType = NameType.N;
+                    symbolTable.push(); //push symbol table scope layer
+                    node.usageSource = abstractNode; //forloop is variable declaration
+                    int controlVar = tree.child(tree.child(abstractNode, 0), 0);
+                    node.snippet = tree.val(controlVar); //get name of variable
+                    symbolTable.declare(tree.valueId(controlVar), abstractNode, 0); //insert for loop control variable in its own scope
+                    symbolBindOffset = -1; //negative offset that new variables wont be declared in control variable scope layer
+                    break;
+            }
+            return true;
+        }
+
+        @Override
+        protected void exit(int abstractNode, int parent) {
+            switch (tree.type(abstractNode)) {
+                case Prog:
+                    symbolTable.pop(); //pop layer of symbol table
+                    break;
+                case ForLoop:
+                    symbolTable.pop(); //pop symbol table scope layer
+                    symbolBindOffset = 0; //remove offset so new variables will be declared in top scope layer
+                    break;
+            }
+            establishType(abstractNode);
+        }
+
+        private void populateTableProcedures(int procDefs) {
+            for (int a = tree.childCount(procDefs) - 1; a >= 0; a--) {
+                int abstractNode = tree.child(procDefs, a);
+                if (reDeclaration(abstractNode))
+                    table[abstractNode].errorMessage = "Redeclaration of Procedure!";
+                table[abstractNode].usageSource = abstractNode;
+                symbolTable.declare(tree.valueId(abstractNode), abstractNode, symbolBindOffset); //insert declaration in symbol table
+                establishType(abstractNode);
+            }
+            establishType(procDefs);
+        }
+
+        private Integer getDeclarationSource(int abstractNode) {
+            int declaration = symbolTable.lookup(tree.valueId(abstractNode)); //names are looked up by their interned id
+            return declaration == SymbolTable.NONE? null : declaration;
+        }
+
+        private boolean reDeclaration(int abstractNode) {
+            return symbolTable.declaredInTop(tree.valueId(abstractNode)); //lookup name in top scope layer
         }
-	
-	establishType(abstractNode);
     }
 
-    private boolean establishFlow(AbstractNode abstractNode, AbstractNode parent, ArrayList<HashMap<String, Integer>> flowStartTable, ArrayList<String> callStack) {
-	    boolean halt = false;
-        AbstractNodeType nodeType = abstractNode.type;
-        SemanticNode node = table[abstractNode.id];
-        switch (nodeType) {
-            case Var:
-                //Continue flow
-                node.flowStart = getFlowStart(flowStartTable, abstractNode.val);
-                break;
-            case Number:
-            case String:
-            case True:
-            case False:
-                //Start flow
-                node.flowStart = abstractNode.id;
-                break;
-            case Prog:
-                if (abstractNode.children.length > 1) //if the prog has proc defs scan them first
-                    establishFlow(abstractNode.children[1], abstractNode, flowStartTable, callStack);
-                for (AbstractNode childAbstractNode : abstractNode.children)
-                    establishFlow(childAbstractNode, abstractNode, flowStartTable, callStack); //recursively call on children
-                break;
-            case Code:
-                if (table[parent.id].nodeType != AbstractNodeType.Prog && //if the node is a local block scope
-                        !(table[parent.id].nodeType == AbstractNodeType.CondBranch && parent.children.length > 2)) { //if it is not a if else cond statement
-                    pushFlowStack(flowStartTable);
-                    for (AbstractNode childAbstractNode : abstractNode.children)
-			            if (!halt)
-				            halt = establishFlow(childAbstractNode, abstractNode, flowStartTable, callStack); //recursive call
-                    popFlowStack(flowStartTable);
+    /**
+     * What a procedure does to the values of variables, independent of where it is called from.
+     * Values in assigns are node ids, or entryValue(variable) when the procedure passes on the value a variable had on entry.
+     */
+    private static class ProcedureSummary {
+        HashMap<Integer, Integer> assigns = new HashMap<>(); //variables definitely assigned by the procedure
+        HashSet<Integer> needs = new HashSet<>(); //variables read before the procedure assigns them
+        HashMap<Integer, Integer> moves = null; //changes of every variable other than up, null while there are none
+        HashSet<Integer> unassigned = null; //variables that kept changing, left unassigned for good
+        ArrayList<Integer> callees = new ArrayList<>(); //procedures called by the body, once per call
+        ArrayList<Integer> callers = null; //callers in the same component, null if there are none
+        HashMap<Integer, Integer> entry = null; //values of the needed variables at every call site, null while the procedure is not called
+        boolean queued = false;
+        int component;
+        int index = -1; //visit order and lowest reachable visit order on the path, while components are found
+        int low;
+        boolean onPath = false;
+    }
+
+    /**
+     * Checks the flow of values in two passes, every procedure body is walked on its own instead of once per call.
+     * Both passes run over the strongly connected components of the call graph, so a procedure outside recursion is
+     * walked once in each. The summary pass goes from callees to callers and iterates a recursive component until no
+     * summary changes. The second pass walks the main program and then, from callers to callees, every called procedure
+     * with the values available at all its call sites, call sites apply the summary of the procedure they call.
+     */
+    private void establishFlow() {
+        findComponents();
+        HashMap<Integer, ProcedureSummary> reused = previousSummaries();
+        ArrayDeque<Integer> queue = new ArrayDeque<>(); //first in first out, a recursive component is walked in rounds
+        for (ArrayList<Integer> component : components) {
+            for (int procedure : component) {
+                ProcedureSummary summary = summaries.get(procedure);
+                if (reused.containsKey(procedure)) {
+                    summary.assigns = reused.get(procedure).assigns;
+                    summary.needs = reused.get(procedure).needs;
+                    reusedSummaries++;
                 } else {
-                    for (AbstractNode childAbstractNode : abstractNode.children)
-                        if (!halt)
-                            halt = establishFlow(childAbstractNode, abstractNode, flowStartTable, callStack); //recursive call
+                    summary.queued = true;
+                    queue.add(procedure);
                 }
-                break;
-            case Input:
-                for (AbstractNode childAbstractNode : abstractNode.children)
-                    establishFlow(childAbstractNode, abstractNode, flowStartTable, callStack); //recursive call
-                AbstractNode inputVar = abstractNode.children[0];
-                node.flowStart = abstractNode.id;
-                table[inputVar.id].flowStart = abstractNode.id;
-                putFlowStart(flowStartTable, inputVar.val, abstractNode.id);
-                break;
-            case Assign:
-                for (AbstractNode childAbstractNode : abstractNode.children)
-                    establishFlow(childAbstractNode, abstractNode, flowStartTable, callStack); //recursively call on children
-
-                AbstractNode leftOperand = abstractNode.children[0];
-                AbstractNode rightOperand = abstractNode.children[1];
-                AbstractNodeType rightOperandNodeType = table[rightOperand.id].nodeType;
-                switch (rightOperandNodeType) { //inspect rhs operand
-                    case String:
-                    case Number:
-                    case True:
-                    case False:
-                    case Var:
-                    case EqExpr:
-                    case GreaterExpr:
-                    case LessExpr:
-                    case AddExpr:
-                    case SubExpr:
-                    case MultExpr:
-                    case AndExpr:
-                    case OrExpr:
-                        node.flowStart = table[rightOperand.id].flowStart;
-                        table[leftOperand.id].flowStart = table[rightOperand.id].flowStart;
-                        if (table[rightOperand.id].flowStart != null)  //if rhs operand has value
-                            putFlowStart(flowStartTable, leftOperand.val, rightOperand.id);
-                        break;
+            }
+            while (!queue.isEmpty()) {
+                int procedure = queue.poll();
+                ProcedureSummary summary = summaries.get(procedure);
+                summary.queued = false;
+                FlowVisitor flowVisitor = new FlowVisitor(procedure, new FlowEnvironment(nameCount), true);
+                flowVisitor.walk(procedure);
+                procedureWalks++;
+                if (join(summary, flowVisitor.assigned, flowVisitor.needs) && summary.callers != null)
+                    for (int caller : summary.callers) {
+                        if (!summaries.get(caller).queued) {
+                            summaries.get(caller).queued = true;
+                            queue.add(caller);
+                        }
+                    }
+            }
+        }
+
+        FlowVisitor mainVisitor = new FlowVisitor(AbstractTree.NONE, new FlowEnvironment(nameCount), false);
+        mainVisitor.walk(tree.root);
+        for (currentComponent = components.size() - 1; currentComponent >= 0; currentComponent--) {
+            for (int procedure : components.get(currentComponent))
+                if (summaries.get(procedure).queued) //called from a component walked before
+                    calledProcedures.add(procedure);
+            while (!calledProcedures.isEmpty()) {
+                int procedure = calledProcedures.poll();
+                summaries.get(procedure).queued = false;
+                walkWithValues(procedure, summaries.get(procedure).entry, true);
+            }
+        }
+
+        for (int procedure : procedures) { //procedures the main program never reaches see the values at its end
+            if (summaries.get(procedure).entry != null)
+                continue;
+            HashMap<Integer, Integer> entry = new HashMap<>();
+            for (int variable : summaries.get(procedure).needs) {
+                int flowStart = mainVisitor.flowStartTable.get(variable);
+                if (flowStart != FlowEnvironment.NO_VALUE)
+                    entry.put(variable, flowStart);
+            }
+            walkWithValues(procedure, entry, false);
+        }
+    }
+
+    /**
+     * Joins what a summary pass walk found into the summary, true if the summary changed.
+     * Needs only grow, and a variable may always move up from unassigned to passing on an entry value to holding a value
+     * of its own. A variable that changes any other way more than MOVES times is left unassigned for good, so every
+     * summary changes a bounded number of times and a recursive component comes to rest without stopping early.
+     */
+    private static boolean join(ProcedureSummary summary, HashMap<Integer, Integer> assigned, HashSet<Integer> needs) {
+        boolean changed = summary.needs.addAll(needs);
+        Iterator<Map.Entry<Integer, Integer>> it = summary.assigns.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Integer, Integer> entry = it.next();
+            Integer flowStart = assigned.get(entry.getKey());
+            if (flowStart != null && flowStart.equals(entry.getValue()))
+                continue;
+            if (flowStart != null && !isEntryValue(flowStart)) { //a value of its own stays one, whichever node it comes from
+                changed |= isEntryValue(entry.getValue());
+                entry.setValue(flowStart);
+                continue;
+            }
+            changed = true;
+            if (summary.moves == null)
+                summary.moves = new HashMap<>();
+            Integer moves = summary.moves.get(entry.getKey());
+            summary.moves.put(entry.getKey(), moves = moves == null? 1 : moves + 1);
+            if (flowStart == null || moves > MOVES) {
+                if (moves > MOVES) {
+                    if (summary.unassigned == null)
+                        summary.unassigned = new HashSet<>();
+                    summary.unassigned.add(entry.getKey());
                 }
-                break;
-            case EqExpr:
-            case GreaterExpr:
-            case LessExpr:
-            case AddExpr:
-            case SubExpr:
-            case MultExpr:
-            case AndExpr:
-            case OrExpr:
-                for (AbstractNode childAbstractNode : abstractNode.children)
-                    establishFlow(childAbstractNode, abstractNode, flowStartTable, callStack); //recursively call on children
+                it.remove();
+            } else {
+                entry.setValue(flowStart);
+            }
+        }
+        for (Map.Entry<Integer, Integer> entry : assigned.entrySet()) {
+            if (!summary.assigns.containsKey(entry.getKey()) && (summary.unassigned == null || !summary.unassigned.contains(entry.getKey()))) {
+                summary.assigns.put(entry.getKey(), entry.getValue());
+                changed = true;
+            }
+        }
+        return changed;
+    }
 
-                leftOperand = abstractNode.children[0];
-                rightOperand = abstractNode.children[1];
-                if (table[leftOperand.id].flowStart != null && table[rightOperand.id].flowStart != null)
-                    node.flowStart = abstractNode.id;
-                break;
-            case CondBranch:
-                if (abstractNode.children.length < 3) {
-                    for (AbstractNode childAbstractNode : abstractNode.children)
-                        establishFlow(childAbstractNode, abstractNode, flowStartTable, callStack); //recursively call on children
-                } else {
-                    establishFlow(abstractNode.children[0], abstractNode, flowStartTable, callStack);
-                    ArrayList<HashMap<String, Integer>> flowStartTable1 = new ArrayList<>(flowStartTable);
-                    pushFlowStack(flowStartTable1);
-                    establishFlow(abstractNode.children[1], abstractNode, flowStartTable1, callStack);
-                    ArrayList<HashMap<String, Integer>> flowStartTable2 = new ArrayList<>(flowStartTable);
-                    pushFlowStack(flowStartTable2);
-                    establishFlow(abstractNode.children[2], abstractNode, flowStartTable2, callStack);
-
-                    Iterator it = flowStartTable1.get(flowStartTable1.size() - 1).entrySet().iterator(); //get top layer
-                    while (it.hasNext()) {
-                        Map.Entry pair = (Map.Entry)it.next();
-                        Integer flowStart = getFlowStart(flowStartTable2, pair.getKey().toString());
-                        if (flowStart != null)
-                            putFlowStart(flowStartTable, pair.getKey().toString(), (Integer) pair.getValue());
-                        it.remove(); // avoids a ConcurrentModificationException
+    /**
+     * Finds the strongly connected components of the call graph with Tarjan's algorithm on an explicit stack,
+     * a component is added after every component it calls and lists the procedures reached last first, so callees
+     * tend to come before their callers. Callers within a component are linked for the summary pass.
+     */
+    private void findComponents() {
+        ArrayDeque<Integer> path = new ArrayDeque<>();
+        int walk[] = new int[16]; //procedures being searched and the next callee of each
+        int next[] = new int[16];
+        int count = 0;
+        for (int root : procedures) {
+            if (summaries.get(root).index >= 0)
+                continue;
+            int depth = 0;
+            walk[depth] = root;
+            next[depth++] = 0;
+            count = reach(root, path, count);
+            while (depth > 0) {
+                ProcedureSummary summary = summaries.get(walk[depth - 1]);
+                if (next[depth - 1] < summary.callees.size()) {
+                    int callee = summary.callees.get(next[depth - 1]++);
+                    ProcedureSummary calleeSummary = summaries.get(callee);
+                    if (calleeSummary.index < 0) {
+                        if (depth == walk.length) {
+                            walk = Arrays.copyOf(walk, 2 * depth);
+                            next = Arrays.copyOf(next, 2 * depth);
+                        }
+                        walk[depth] = callee;
+                        next[depth++] = 0;
+                        count = reach(callee, path, count);
+                    } else if (calleeSummary.onPath) {
+                        summary.low = Math.min(summary.low, calleeSummary.index);
                     }
+                    continue;
+                }
+                int procedure = walk[--depth];
+                if (summary.low == summary.index) { //procedure is the first of its component reached
+                    ArrayList<Integer> component = new ArrayList<>();
+                    int member;
+                    do {
+                        member = path.pop();
+                        summaries.get(member).onPath = false;
+                        summaries.get(member).component = components.size();
+                        component.add(member);
+                    } while (member != procedure);
+                    components.add(component);
                 }
+                if (depth > 0)
+                    summaries.get(walk[depth - 1]).low = Math.min(summaries.get(walk[depth - 1]).low, summary.low);
+            }
+        }
+        for (int procedure : procedures) {
+            for (int callee : summaries.get(procedure).callees) {
+                ProcedureSummary calleeSummary = summaries.get(callee);
+                if (calleeSummary.component != summaries.get(procedure).component)
+                    continue;
+                if (calleeSummary.callers == null)
+                    calleeSummary.callers = new ArrayList<>();
+                calleeSummary.callers.add(procedure); //once per call, the queued flag keeps a caller from being queued twice
+            }
+        }
+    }
+
+    private int reach(int procedure, ArrayDeque<Integer> path, int count) {
+        ProcedureSummary summary = summaries.get(procedure);
+        summary.index = summary.low = count;
+        summary.onPath = true;
+        path.push(procedure);
+        return count + 1;
+    }
 
-                AbstractNode guard = abstractNode.children[0];
+    /**
+     * Walks a procedure body in the second pass starting from the entry values.
+     */
+    private void walkWithValues(int procedure, HashMap<Integer, Integer> entry, boolean recordCalls) {
+        FlowEnvironment flowStartTable = new FlowEnvironment(nameCount);
+        for (Map.Entry<Integer, Integer> value : entry.entrySet())
+            flowStartTable.put(value.getKey(), value.getValue());
+        FlowVisitor flowVisitor = new FlowVisitor(procedure, flowStartTable, false);
+        flowVisitor.recordCalls = recordCalls;
+        flowVisitor.walk(procedure);
+        procedureWalks++;
+    }
 
-                if (table[guard.id].flowStart != null)
-                    node.flowStart = guard.id;
-                break;
-            case Output:
-            case NotExpr:
-            case WhileLoop:
-                for (AbstractNode childAbstractNode : abstractNode.children)
-                    establishFlow(childAbstractNode, abstractNode, flowStartTable, callStack); //recursively call on children
+    /**
+     * The final summaries of previous that hold for procedures of this tree, in terms of this tree.
+     * A procedure qualifies if its subtree is unchanged, every name in its body refers to the declaration paired with
+     * the one it referred to before and every procedure it calls qualifies too. Its summary is then the one it ended with.
+     */
+    private HashMap<Integer, ProcedureSummary> previousSummaries() {
+        HashMap<Integer, ProcedureSummary> reused = new HashMap<>();
+        if (previous == null)
+            return reused;
+        ArrayDeque<Integer> dropped = new ArrayDeque<>();
+        for (int procedure : procedures) {
+            ProcedureSummary earlier = matcher.unchanged(procedure)? previous.summaries.get(matcher.original(procedure)) : null;
+            ProcedureSummary summary = new ProcedureSummary();
+            boolean same = earlier != null && sameSources(procedure);
+            if (same) {
+                for (Map.Entry<Integer, Integer> value : earlier.assigns.entrySet())
+                    summary.assigns.put(matchName(value.getKey()), matchValue(value.getValue()));
+                for (int variable : earlier.needs)
+                    summary.needs.add(matchName(variable));
+            }
+            if (same && !summary.assigns.containsKey(MISSING) && !summary.assigns.containsValue(MISSING) && !summary.needs.contains(MISSING))
+                reused.put(procedure, summary);
+            else
+                dropped.add(procedure);
+        }
+        HashMap<Integer, ArrayList<Integer>> callers = new HashMap<>();
+        for (int procedure : procedures) {
+            for (int callee : summaries.get(procedure).callees) {
+                if (!callers.containsKey(callee))
+                    callers.put(callee, new ArrayList<Integer>());
+                callers.get(callee).add(procedure);
+            }
+        }
+        while (!dropped.isEmpty()) { //callers of a procedure analysed again are analysed again
+            ArrayList<Integer> droppedCallers = callers.get(dropped.poll());
+            if (droppedCallers != null)
+                for (int caller : droppedCallers)
+                    if (reused.remove(caller) != null)
+                        dropped.add(caller);
+        }
+        return reused;
+    }
 
-                guard = abstractNode.children[0];
+    /**
+     * Whether every name in the body of an unchanged procedure refers to the declaration paired with the one it referred to in previous.
+     */
+    private boolean sameSources(int procedure) {
+        final boolean same[] = {true};
+        new TreeVisitor(tree, timer) {
+            @Override
+            protected boolean enter(int abstractNode, int parent) {
+                if (!same[0] || tree.type(abstractNode) == AbstractNodeType.ProcDefs) //nested procedures are checked on their own
+                    return false;
+                int original = matcher.original(abstractNode);
+                Integer before = original == AbstractTree.NONE? null : previous.table[original].usageSource;
+                Integer now = table[abstractNode].usageSource;
+                if (original == AbstractTree.NONE || (before == null? now != null : now == null || now != matchNode(before)))
+                    same[0] = false;
+                return same[0];
+            }
+        }.walk(procedure);
+        return same[0];
+    }
 
-                if (table[guard.id].flowStart != null)
-                    node.flowStart = guard.id;
-                break;
-            case ForLoop:
-                for (AbstractNode childAbstractNode : abstractNode.children)
-                    establishFlow(childAbstractNode, abstractNode,flowStartTable, callStack); //recursively call on children
+    private static final int MISSING = Integer.MIN_VALUE; //a node of previous without a match
 
-                AbstractNode assign = abstractNode.children[0];
-                AbstractNode compare = abstractNode.children[1];
-                AbstractNode increment = abstractNode.children[2];
+    private int matchNode(int node) {
+        int match = matcher.match(node);
+        return match == AbstractTree.NONE? MISSING : match;
+    }
 
-                if (table[assign.id].flowStart != null && table[compare.id].flowStart != null && table[increment.id].flowStart != null)
-                    node.flowStart = abstractNode.id;
-                break;
-            case Call:
-                Integer bodyId = table[abstractNode.id].usageSource;
-                int index = callStack.indexOf(abstractNode.val); //check for recursiveness
-                if (bodyId != null && index == -1) {
-                    callStack.add(abstractNode.val);
-                    AbstractNode bodyAbstractNode = tree.nodes[bodyId];
-                    establishFlow(bodyAbstractNode, abstractNode, flowStartTable, callStack);
-                    callStack.remove(abstractNode.val);
+    /**
+     * The number in this table of a declaration numbered name in previous.
+     */
+    private int matchName(int name) {
+        int declaration = matcher.match(previous.declarations[name]);
+        return declaration == AbstractTree.NONE? MISSING : names[declaration];
+    }
+
+    /**
+     * A flow start of previous in terms of this tree.
+     */
+    private int matchValue(int flowStart) {
+        if (isEntryValue(flowStart)) {
+            int variable = matchName(entryVariable(flowStart));
+            return variable == MISSING? MISSING : entryValue(variable);
+        }
+        return matchNode(flowStart);
+    }
+
+    /**
+     * Meets the values of the variables the called procedure needs into its entry values, queues the procedure if they changed.
+     * A variable keeps its value if it is the same at every call site, it has value merged at the procedure if it differs
+     * and it has no value if any call site lacks it.
+     */
+    private void enterProcedure(int procedure, FlowEnvironment flowStartTable) {
+        ProcedureSummary summary = summaries.get(procedure);
+        boolean changed = false;
+        if (summary.entry == null) {
+            summary.entry = new HashMap<>();
+            for (int variable : summary.needs) {
+                int flowStart = flowStartTable.get(variable);
+                if (flowStart != FlowEnvironment.NO_VALUE)
+                    summary.entry.put(variable, flowStart);
+            }
+            changed = true;
+        } else {
+            Iterator<Map.Entry<Integer, Integer>> it = summary.entry.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Integer, Integer> entry = it.next();
+                int flowStart = flowStartTable.get(entry.getKey());
+                if (flowStart == FlowEnvironment.NO_VALUE) {
+                    it.remove();
+                    changed = true;
+                } else if (flowStart != entry.getValue() && entry.getValue() != procedure) {
+                    entry.setValue(procedure);
+                    changed = true;
                 }
-                break;
-            case Proc:
-                if (table[parent.id].nodeType != AbstractNodeType.Call) {
-                    pushFlowStack(flowStartTable);
-                    for (AbstractNode childAbstractNode : abstractNode.children)
-                        establishFlow(childAbstractNode, abstractNode, flowStartTable, callStack); //recursively call on children
-                    popFlowStack(flowStartTable);
-                } else {
-                    for (AbstractNode childAbstractNode : abstractNode.children)
-                        establishFlow(childAbstractNode, abstractNode, flowStartTable, callStack); //recursively call on children
+            }
+        }
+        if (changed && !summary.queued) {
+            summary.queued = true;
+            if (summary.component == currentComponent) //later components pick it up when their turn comes
+                calledProcedures.add(procedure);
+        }
+    }
+
+    private static int entryValue(int variable) {
+        return -2 - variable;
+    }
+
+    private static boolean isEntryValue(int flowStart) {
+        return flowStart < FlowEnvironment.NO_VALUE;
+    }
+
+    private static int entryVariable(int flowStart) {
+        return -2 - flowStart;
+    }
+
+    /**
+     * Follows the flow of values through the main program or one procedure body: marks which nodes have a value when they
+     * are reached and which nodes are reachable at all. Calls apply the summary of the called procedure.
+     * In the summary pass a variable that was not assigned yet holds entryValue(variable), which counts as having a value.
+     */
+    private class FlowVisitor extends TreeVisitor {
+        private final int procedure; //procedure being walked, NONE for the main program
+        private final boolean summaryPass;
+        private boolean recordCalls = true; //whether calls contribute to the entry values of the called procedure
+        private FlowEnvironment flowStartTable;
+        private ArrayDeque<FlowEnvironment> branchTables = new ArrayDeque<>();
+        private boolean halt = false; //whether the last finished node halted the program
+        private HashMap<Integer, Integer> assigned = new HashMap<>();
+        private HashSet<Integer> needs = new HashSet<>();
+
+        private final FlowEnvironment.Merger merger = new FlowEnvironment.Merger() {
+            @Override
+            public int merge(int variable, int thenFlowStart, int elseFlowStart) {
+                elseFlowStart = lookup(elseFlowStart, variable);
+                if (elseFlowStart == FlowEnvironment.NO_VALUE)
+                    return FlowEnvironment.NO_VALUE;
+                return isEntryValue(elseFlowStart)? elseFlowStart : thenFlowStart; //a value taken from the entry decides whether the variable has one
+            }
+        };
+
+        FlowVisitor(int procedure, FlowEnvironment flowStartTable, boolean summaryPass) {
+            super(SemanticTable.this.tree, timer);
+            this.procedure = procedure;
+            this.flowStartTable = flowStartTable;
+            this.summaryPass = summaryPass;
+        }
+
+        @Override
+        protected boolean enter(int abstractNode, int parent) {
+            table[abstractNode].flowStart = null;
+            switch (tree.type(abstractNode)) {
+                case Code:
+                    if (isLocalBlock(parent))
+                        flowStartTable.push();
+                    break;
+                case Proc:
+                    flowStartTable.push();
+                    break;
+                case ProcDefs: //procedures are walked on their own
+                case Call:
+                    return false;
+            }
+            return true;
+        }
+
+        @Override
+        protected int next(int abstractNode, int step) {
+            switch (tree.type(abstractNode)) {
+                case Code:
+                    if (step > 0 && halt) //statements after a halt are not reached
+                        return AbstractTree.NONE;
+                    halt = false;
+                    break;
+                case CondBranch:
+                    if (tree.childCount(abstractNode) < 3)
+                        break;
+                    if (step == 1) { //then branch works on its own fork of the flow table
+                        branchTables.push(flowStartTable);
+                        flowStartTable = flowStartTable.fork();
+                    } else if (step == 2) { //else branch works on another fork
+                        FlowEnvironment thenTable = flowStartTable;
+                        flowStartTable = branchTables.peek().fork();
+                        branchTables.push(thenTable);
+                    } else if (step == 3) { //values assigned in both branches continue after the cond statement
+                        FlowEnvironment thenTable = branchTables.pop();
+                        FlowEnvironment elseTable = flowStartTable;
+                        flowStartTable = branchTables.pop();
+                        flowStartTable.mergeBranches(thenTable, elseTable, merger);
+                    }
+                    break;
+            }
+            return super.next(abstractNode, step);
+        }
+
+        @Override
+        protected void exit(int abstractNode, int parent) {
+            AbstractNodeType nodeType = tree.type(abstractNode);
+            SemanticNode node = table[abstractNode];
+            switch (nodeType) {
+                case Var:
+                    //Continue flow
+                    if (node.usageSource != null) {
+                        int variable = names[node.usageSource];
+                        int flowStart = lookup(flowStartTable.get(variable), variable);
+                        if (isEntryValue(flowStart))
+                            needs.add(entryVariable(flowStart));
+                        if (flowStart != FlowEnvironment.NO_VALUE)
+                            node.flowStart = flowStart;
+                    }
+                    break;
+                case Number:
+                case String:
+                case True:
+                case False:
+                    //Start flow
+                    node.flowStart = abstractNode;
+                    break;
+                case Code:
+                    if (isLocalBlock(parent))
+                        flowStartTable.pop();
+                    break;
+                case Input:
+                    int inputVar = tree.child(abstractNode, 0);
+                    node.flowStart = abstractNode;
+                    table[inputVar].flowStart = abstractNode;
+                    if (table[inputVar].usageSource != null)
+                        flowStartTable.put(names[table[inputVar].usageSource], abstractNode);
+                    break;
+                case Assign:
+                    int leftOperand = tree.child(abstractNode, 0);
+                    int rightOperand = tree.child(abstractNode, 1);
+                    switch (table[rightOperand].nodeType) { //inspect rhs operand
+                        case String:
+                        case Number:
+                        case True:
+                        case False:
+                        case Var:
+                        case EqExpr:
+                        case GreaterExpr:
+                        case LessExpr:
+                        case AddExpr:
+                        case SubExpr:
+                        case MultExpr:
+                        case AndExpr:
+                        case OrExpr:
+                            Integer flowStart = table[rightOperand].flowStart;
+                            node.flowStart = flowStart;
+                            table[leftOperand].flowStart = flowStart;
+                            if (flowStart != null && table[leftOperand].usageSource != null) //if rhs operand has value
+                                flowStartTable.put(names[table[leftOperand].usageSource], isEntryValue(flowStart)? flowStart : rightOperand);
+                            break;
+                    }
+                    break;
+                case EqExpr:
+                case GreaterExpr:
+                case LessExpr:
+                case AddExpr:
+                case SubExpr:
+                case MultExpr:
+                case AndExpr:
+                case OrExpr:
+                    Integer left = table[tree.child(abstractNode, 0)].flowStart;
+                    Integer right = table[tree.child(abstractNode, 1)].flowStart;
+                    if (left != null && right != null) //a value computed from entry values has one if they have
+                        node.flowStart = isEntryValue(left)? left : isEntryValue(right)? right : abstractNode;
+                    break;
+                case CondBranch:
+                case Output:
+                case NotExpr:
+                case WhileLoop:
+                    int guard = tree.child(abstractNode, 0);
+                    if (table[guard].flowStart != null)
+                        node.flowStart = nodeType == AbstractNodeType.NotExpr && isEntryValue(table[guard].flowStart)? table[guard].flowStart : guard;
+                    break;
+                case ForLoop:
+                    int assign = tree.child(abstractNode, 0);
+                    int compare = tree.child(abstractNode, 1);
+                    int increment = tree.child(abstractNode, 2);
+
+                    if (table[assign].flowStart != null && table[compare].flowStart != null && table[increment].flowStart != null)
+                        node.flowStart = abstractNode;
+                    break;
+                case Call:
+                    if (node.usageSource != null && tree.type(node.usageSource) == AbstractNodeType.Proc)
+                        applySummary(node.usageSource);
+                    break;
+                case Proc:
+                    flowStartTable.forEachInScope(new FlowEnvironment.Visitor() {
+                        @Override
+                        public void visit(int variable, int flowStart) {
+                            assigned.put(variable, flowStart);
+                        }
+                    });
+                    flowStartTable.pop();
+                    break;
+            }
+            node.reachable = true;
+            if (nodeType == AbstractNodeType.Halt)
+                halt = true;
+            else if (nodeType != AbstractNodeType.Code)
+                halt = false; //only a code block passes the halt of its statements on
+        }
+
+        /**
+         * The value of variable given its flow start in the table, in the summary pass unassigned variables keep their entry value.
+         */
+        private int lookup(int flowStart, int variable) {
+            return flowStart == FlowEnvironment.NO_VALUE && summaryPass? entryValue(variable) : flowStart;
+        }
+
+        private void applySummary(int callee) {
+            ProcedureSummary summary = summaries.get(callee);
+            if (summaryPass) {
+                for (int variable : summary.needs) { //what the callee needs and this procedure has not assigned yet is needed here
+                    int flowStart = lookup(flowStartTable.get(variable), variable);
+                    if (isEntryValue(flowStart))
+                        needs.add(entryVariable(flowStart));
                 }
-                break;
-            case Halt:
-                node.reachable = true;
-                return true;
-            default:
-                for (AbstractNode childAbstractNode : abstractNode.children)
-                    establishFlow(childAbstractNode, abstractNode, flowStartTable, callStack); //recursively call on children
-                break;
+            } else if (recordCalls) {
+                enterProcedure(callee, flowStartTable);
+            }
+            for (Map.Entry<Integer, Integer> entry : summary.assigns.entrySet()) {
+                int flowStart = entry.getValue();
+                if (isEntryValue(flowStart)) //passed on from the value at the call
+                    flowStart = lookup(flowStartTable.get(entryVariable(flowStart)), entryVariable(flowStart));
+                if (flowStart != FlowEnvironment.NO_VALUE)
+                    flowStartTable.put(entry.getKey(), flowStart);
+            }
+        }
+
+        private boolean isLocalBlock(int parent) {
+            return table[parent].nodeType != AbstractNodeType.Prog && //if the node is a local block scope
+                    !(table[parent].nodeType == AbstractNodeType.CondBranch && tree.childCount(parent) > 2); //if it is not a if else cond statement
         }
-        node.reachable = true;
-        return halt;
     }
 
-    private void establishType(AbstractNode abstractNode) {
-        AbstractNodeType nodeType = abstractNode.type;
-        SemanticNode node = table[abstractNode.id];
+    private void establishType(int abstractNode) {
+        AbstractNodeType nodeType = tree.type(abstractNode);
+        SemanticNode node = table[abstractNode];
         switch (nodeType) {
             case Output:
             case Input:
-                NameType nameType = table[abstractNode.children[0].id].nameType;
+                NameType nameType = table[tree.child(abstractNode, 0)].nameType;
                 if ((nameType == NameType.B || nameType == NameType.N || nameType == NameType.S))
                     node.nameType = nameType;
                 break;
@@ -328,153 +892,163 @@ public class SemanticTable {
                 }
                 break;
             case Assign:
-                NameType leftOperandType = table[abstractNode.children[0].id].nameType;
-                NameType rightOperandType = table[abstractNode.children[1].id].nameType;
+                NameType leftOperandType = table[tree.child(abstractNode, 0)].nameType;
+                NameType rightOperandType = table[tree.child(abstractNode, 1)].nameType;
                 if (leftOperandType == rightOperandType)
                     node.nameType = leftOperandType;
                 break;
             case AddExpr:
             case SubExpr:
             case MultExpr:
-                leftOperandType = table[abstractNode.children[0].id].nameType;
-                rightOperandType = table[abstractNode.children[1].id].nameType;
+                leftOperandType = table[tree.child(abstractNode, 0)].nameType;
+                rightOperandType = table[tree.child(abstractNode, 1)].nameType;
                 if (leftOperandType == rightOperandType && leftOperandType == NameType.N)
                     node.nameType = leftOperandType;
                 break;
             case CondBranch:
-                NameType guard = table[abstractNode.children[0].id].nameType;
+                NameType guard = table[tree.child(abstractNode, 0)].nameType;
                 if (guard == NameType.B)
                     node.nameType = NameType.C;
                 break;
             case EqExpr:
-                leftOperandType = table[abstractNode.children[0].id].nameType;
-                rightOperandType = table[abstractNode.children[1].id].nameType;
+                leftOperandType = table[tree.child(abstractNode, 0)].nameType;
+                rightOperandType = table[tree.child(abstractNode, 1)].nameType;
                 if (leftOperandType == rightOperandType)
                     node.nameType = NameType.B;
                 break;
             case LessExpr:
             case GreaterExpr:
-                leftOperandType = table[abstractNode.children[0].id].nameType;
-                rightOperandType = table[abstractNode.children[1].id].nameType;
+                leftOperandType = table[tree.child(abstractNode, 0)].nameType;
+                rightOperandType = table[tree.child(abstractNode, 1)].nameType;
                 if (leftOperandType == rightOperandType && leftOperandType == NameType.N)
                     node.nameType = NameType.B;
                 break;
             case NotExpr:
-                guard = table[abstractNode.children[0].id].nameType;
+                guard = table[tree.child(abstractNode, 0)].nameType;
                 if (guard == NameType.B)
                     node.nameType = guard;
                 break;
             case AndExpr:
             case OrExpr:
-                leftOperandType = table[abstractNode.children[0].id].nameType;
-                rightOperandType = table[abstractNode.children[1].id].nameType;
+                leftOperandType = table[tree.child(abstractNode, 0)].nameType;
+                rightOperandType = table[tree.child(abstractNode, 1)].nameType;
                 if (leftOperandType == rightOperandType && leftOperandType == NameType.B)
                     node.nameType = NameType.B;
                 break;
             case ForLoop:
-                NameType assignment = table[abstractNode.children[0].id].nameType;
-                NameType comparison = table[abstractNode.children[0].id].nameType;
-                NameType increment = table[abstractNode.children[0].id].nameType;
+                NameType assignment = table[tree.child(abstractNode, 0)].nameType;
+                NameType comparison = table[tree.child(abstractNode, 0)].nameType;
+                NameType increment = table[tree.child(abstractNode, 0)].nameType;
 
                 if (assignment == comparison && comparison == increment && assignment == NameType.N)
                     node.nameType = NameType.N;
                 break;
             case WhileLoop:
-                guard = table[abstractNode.children[0].id].nameType;
+                guard = table[tree.child(abstractNode, 0)].nameType;
                 if (guard == NameType.B)
                     node.nameType = NameType.C;
                 break;
         }
     }
 
-    private Integer getDeclarationSource(String name) {
-        for (int a = symbolTable.size() - 1; a >= 0; a--) { //loop through scope layer stack
-            if (symbolTable.get(a).get(name) != null) //lookup variable in scope layer symbol table
-                return symbolTable.get(a).get(name); //if found
+    private void reNameProcesses(int abstractNode) {
+        AbstractNodeType nodeType = tree.type(abstractNode);
+        switch (nodeType) {
+            case ProcDefs:
+                for(int a = tree.childCount(abstractNode) - 1; a >= 0; a--)
+                    reNameProcesses(tree.child(abstractNode, a));
+                break;
+            case Proc:
+                tree.setVal(abstractNode, table[abstractNode].snippet = ("P" + processCount++));
         }
-        return null;
-    }
-
-    private boolean reDeclaration(String name) {
-        return symbolTable.get(symbolTable.size() - 1).get(name) != null; //lookup variable in scope layer symbol table
     }
 
-    private Integer getFlowStart(ArrayList<HashMap<String, Integer>> flowStartTable, String name) {
-        for (int a = flowStartTable.size() - 1; a >= 0; a--) { //loop through scope layer stack
-            if (flowStartTable.get(a).get(name) != null) //lookup variable in scope layer symbol table
-                return flowStartTable.get(a).get(name); //if found
-        }
-        return null;
+    /**
+     * Numbers a declaration, the flow tables only need room for as many variables as there are declarations.
+     * Procedures are numbered only when a variable refers to one.
+     */
+    private void name(int declaration) {
+        if (nameCount == declarations.length)
+            declarations = Arrays.copyOf(declarations, 2 * nameCount);
+        declarations[nameCount] = declaration;
+        names[declaration] = nameCount++;
     }
 
-    private void popFlowStack(ArrayList<HashMap<String, Integer>> flowStartTable) {
-        flowStartTable.remove(flowStartTable.size() - 1);
-    }
+    /**
+     * Renames variables and procedures, numbers their declarations and collects the procedures every procedure calls.
+     */
+    private class ReNameVisitor extends TreeVisitor {
+        private ArrayDeque<Integer> enclosing = new ArrayDeque<>(); //procedures around the node
 
-    private void pushFlowStack(ArrayList<HashMap<String, Integer>> flowStartTable) {
-        flowStartTable.add(new HashMap<>());
-    }
-
-    private void putFlowStart(ArrayList<HashMap<String, Integer>> flowStartTable, String name, int flowStart) {
-        flowStartTable.get(flowStartTable.size() - 1).put(name, flowStart); //insert declaration in flow table
-    }
+        ReNameVisitor() {
+            super(SemanticTable.this.tree, timer);
+        }
 
-    private void reNameProcesses(AbstractNode abstractNode) {
-        AbstractNodeType nodeType = abstractNode.type;
-        switch (nodeType) {
-            case ProcDefs:
-                for(int a = abstractNode.children.length - 1; a >= 0; a--)
-                    reNameProcesses(abstractNode.children[a]);
-                break;
-            case Proc:
-                table[abstractNode.id].snippet = tree.nodes[abstractNode.id].val = ("P" + processCount++);
+        @Override
+        protected boolean enter(int abstractNode, int parent) {
+            AbstractNodeType nodeType = tree.type(abstractNode);
+            switch (nodeType) {
+                case Prog:
+                    if (tree.childCount(abstractNode) > 1)
+                        reNameProcesses(tree.child(abstractNode, 1));
+                    break;
+                case Proc:
+                    enclosing.push(abstractNode);
+                    break;
+                case Call:
+                case Var:
+                    Integer source = table[abstractNode].usageSource;
+                    tree.setVal(abstractNode, table[abstractNode].snippet = (source == null? "U" : tree.val(source)));
+                    if (nodeType == AbstractNodeType.Call && source != null && tree.type(source) == AbstractNodeType.Proc && !enclosing.isEmpty())
+                        summaries.get(enclosing.peek()).callees.add(source);
+                    else if (nodeType == AbstractNodeType.Var && source != null && names[source] < 0) //a procedure used as a variable
+                        name(source);
+                    return false;
+                case NumDecl:
+                case BoolDecl:
+                case ForLoop:
+                case StrDecl:
+                    tree.setVal(abstractNode, table[abstractNode].snippet = ("V" + variableCount++));
+                    name(abstractNode);
+                    break;
+            }
+            return true;
         }
-    }
 
-    private void reName(AbstractNode abstractNode) {
-        if (abstractNode == null)
-            return;
-        AbstractNodeType nodeType = abstractNode.type;
-        switch (nodeType) {
-            case Prog:
-                if (abstractNode.children.length > 1)
-                    reNameProcesses(abstractNode.children[1]);
-                for (AbstractNode childAbstractNode : abstractNode.children)
-                    reName(childAbstractNode);
-                break;
-            case Call:
-            case Var:
-                Integer source = table[abstractNode.id].usageSource;
-                table[abstractNode.id].snippet = tree.nodes[abstractNode.id].val = (source == null? "U" : tree.nodes[source].val);
-                break;
-            case NumDecl:
-            case BoolDecl:
-            case ForLoop:
-            case StrDecl:
-                table[abstractNode.id].snippet = tree.nodes[abstractNode.id].val = ("V" + variableCount++);
-            default:
-                for (AbstractNode childAbstractNode : abstractNode.children)
-                    reName(childAbstractNode);
-                break;
+        @Override
+        protected void exit(int abstractNode, int parent) {
+            if (tree.type(abstractNode) == AbstractNodeType.Proc)
+                enclosing.pop();
         }
     }
 
     public String toString() {
-        return toString(tree.root, "");
+        PrintVisitor printVisitor = new PrintVisitor();
+        printVisitor.walk(tree.root);
+        return printVisitor.string.toString();
     }
 
-    public String toString(AbstractNode node, String indent) {
-        String string = "";
-        switch (table[node.id].nodeType) {
-            default:
-                string = String.format("%-3d|", node.id) + indent + table[node.id].toString() + "\r\n";
+    private class PrintVisitor extends TreeVisitor {
+        private StringBuilder string = new StringBuilder();
+        private StringBuilder indent = new StringBuilder();
 
-                for (int a = 0; a < node.children.length; a++) {
-                    string += toString(node.children[a], indent + (a == (node.children.length - 1)? "   " : "|  "));
-                }
+        PrintVisitor() {
+            super(SemanticTable.this.tree, timer);
         }
 
+        @Override
+        protected boolean enter(int node, int parent) {
+            string.append(String.format("%-3d|", node)).append(indent).append(table[node].toString()).append("\r\n");
+            return true;
+        }
 
-        return string;
+        @Override
+        protected int next(int node, int step) {
+            int level = depth() - 1;
+            indent.setLength(3 * level);
+            if (step < tree.childCount(node))
+                indent.append(step == (tree.childCount(node) - 1)? "   " : "|  ");
+            return super.next(node, step);
+        }
     }
 }
@@ -0,0 +1,120 @@
+import java.util.Arrays;
+
+/**
+ * Scoped symbol table over interned name ids.
+ * Every symbol keeps a chain of its bindings ordered from the innermost scope layer outwards,
+ * so a lookup reads one slot and popping a layer only touches the bindings declared in it.
+ */
+public class SymbolTable {
+    public static final int NONE = -1;
+
+    private int heads[]; //innermost binding of each symbol
+    private int bindingSymbols[];
+    private int bindingNodes[];
+    private int bindingLayers[];
+    private int shadowed[]; //next binding of the same symbol in an outer layer
+    private int layerNext[]; //next binding declared in the same layer
+    private int layerHeads[] = new int[16];
+    private int bindingCount = 0;
+    private int layerCount = 0;
+
+    public SymbolTable(int expectedSymbols) {
+        heads = new int[Math.max(expectedSymbols, 16)];
+        Arrays.fill(heads, NONE);
+        int capacity = 64;
+        bindingSymbols = new int[capacity];
+        bindingNodes = new int[capacity];
+        bindingLayers = new int[capacity];
+        shadowed = new int[capacity];
+        layerNext = new int[capacity];
+    }
+
+    /**
+     * Copy of other that can be changed independently.
+     */
+    public SymbolTable(SymbolTable other) {
+        heads = other.heads.clone();
+        bindingSymbols = other.bindingSymbols.clone();
+        bindingNodes = other.bindingNodes.clone();
+        bindingLayers = other.bindingLayers.clone();
+        shadowed = other.shadowed.clone();
+        layerNext = other.layerNext.clone();
+        layerHeads = other.layerHeads.clone();
+        bindingCount = other.bindingCount;
+        layerCount = other.layerCount;
+    }
+
+    public void push() {
+        if (layerCount == layerHeads.length)
+            layerHeads = Arrays.copyOf(layerHeads, layerCount * 2);
+        layerHeads[layerCount++] = NONE;
+    }
+
+    public void pop() {
+        layerCount--;
+        for (int binding = layerHeads[layerCount]; binding != NONE; binding = layerNext[binding])
+            heads[bindingSymbols[binding]] = shadowed[binding]; //bindings of the top layer are at the head of their chains
+    }
+
+    /**
+     * Binds symbol to node in the layer offset layers below the top, replacing a binding of symbol already in that layer.
+     */
+    public void declare(int symbol, int node, int offset) {
+        int layer = layerCount - 1 + offset;
+        ensureSymbol(symbol);
+        int previous = NONE;
+        int binding = heads[symbol];
+        while (binding != NONE && bindingLayers[binding] > layer) { //keep the chain ordered by layer
+            previous = binding;
+            binding = shadowed[binding];
+        }
+        if (binding != NONE && bindingLayers[binding] == layer) {
+            bindingNodes[binding] = node;
+            return;
+        }
+
+        if (bindingCount == bindingNodes.length) {
+            int capacity = bindingCount * 2;
+            bindingSymbols = Arrays.copyOf(bindingSymbols, capacity);
+            bindingNodes = Arrays.copyOf(bindingNodes, capacity);
+            bindingLayers = Arrays.copyOf(bindingLayers, capacity);
+            shadowed = Arrays.copyOf(shadowed, capacity);
+            layerNext = Arrays.copyOf(layerNext, capacity);
+        }
+        int added = bindingCount++;
+        bindingSymbols[added] = symbol;
+        bindingNodes[added] = node;
+        bindingLayers[added] = layer;
+        shadowed[added] = binding;
+        if (previous == NONE)
+            heads[symbol] = added;
+        else
+            shadowed[previous] = added;
+        layerNext[added] = layerHeads[layer];
+        layerHeads[layer] = added;
+    }
+
+    /**
+     * Node bound to symbol in the innermost layer declaring it, NONE if it is not declared.
+     */
+    public int lookup(int symbol) {
+        if (symbol < 0 || symbol >= heads.length || heads[symbol] == NONE)
+            return NONE;
+        return bindingNodes[heads[symbol]];
+    }
+
+    /**
+     * Whether symbol is declared in the top layer.
+     */
+    public boolean declaredInTop(int symbol) {
+        return symbol >= 0 && symbol < heads.length && heads[symbol] != NONE && bindingLayers[heads[symbol]] == layerCount - 1;
+    }
+
+    private void ensureSymbol(int symbol) {
+        if (symbol >= heads.length) {
+            int oldLength = heads.length;
+            heads = Arrays.copyOf(heads, Math.max(symbol + 1, oldLength * 2));
+            Arrays.fill(heads, oldLength, heads.length, NONE);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/**
+ * Terminal symbols of SPL source. The category is the token class the concrete tree names, keywords and
+ * punctuation have fixed text, names, numbers and strings take theirs from the source.
+ */
+public enum Token {
+    NUM("Type", "num"),
+    STRING_TYPE("Type", "string"),
+    BOOL("Type", "bool"),
+    TRUE("Truth", "T"),
+    FALSE("Truth", "F"),
+    HALT("Special", "halt"),
+    PROC("Procedure", "proc"),
+    INPUT("IO", "input"),
+    OUTPUT("IO", "output"),
+    IF("Control", "if"),
+    THEN("Control", "then"),
+    ELSE("Control", "else"),
+    WHILE("Control", "while"),
+    FOR("Control", "for"),
+    EQ("Comparison", "eq"),
+    LESS("Comparison", "<"),
+    GREATER("Comparison", ">"),
+    AND("Boolean", "and"),
+    OR("Boolean", "or"),
+    NOT("Boolean", "not"),
+    ASSIGN("Assignment", "="),
+    ADD("Arithmetic", "add"),
+    SUB("Arithmetic", "sub"),
+    MULT("Arithmetic", "mult"),
+    OPEN("Grouping", "("),
+    CLOSE("Grouping", ")"),
+    OPEN_BLOCK("Grouping", "{"),
+    CLOSE_BLOCK("Grouping", "}"),
+    COMMA("Grouping", ","),
+    SEMICOLON("Grouping", ";"),
+    NAME("Name", null),
+    NUMBER("Number", null),
+    STRING("String", null),
+    END("End", null);
+
+    public final String category;
+    public final String text; //null where the source gives the text
+
+    Token(String category, String text) {
+        this.category = category;
+        this.text = text;
+    }
+}
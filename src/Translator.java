@@ -1,66 +1,70 @@
-import org.omg.PortableInterceptor.SYSTEM_EXCEPTION;
-
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class Translator {
     private AbstractTree tree;
     private SemanticTable semanticTable;
+    private PhaseTimer timer;
+    private IntermediateCode code;
     private String intermediateCode;
     private String finalIntermediateCode;
-//    private int varCount = 0;
-    private int varChars[] = new int[]{0,0};
-    private int labelCount = 0;
-    private String endLabel;
-    private HashMap<String, String> variableMap = new HashMap<>();
+    private String optimizationReport = "";
+    private ConstantFolder constants = null; //compile time values when optimising
+    private DeadCodeEliminator deadCode = null; //statements left out when optimising
+    private int tempCount = 0;
+    private int endLabel;
+    private HashMap<String, Integer> variableMap = new HashMap<>();
 
     public Translator(AbstractTree tree, SemanticTable semanticTable) {
-        this.tree = tree;
-        this.semanticTable = semanticTable;
+        this(tree, semanticTable, false);
+    }
 
-        endLabel = newLabel();
-        intermediateCode = translateStatement(tree.root);
-        intermediateCode += endLabel + "\r\nEND\r\n";
-        finalIntermediateCode = sequentializeIntermediateCode(splitIntermediateCode());
+    /**
+     * Translates the tree, with optimize set constant expressions are folded, statements that need no code are left out
+     * and the code is passed through the peephole optimiser before variables are named.
+     */
+    public Translator(AbstractTree tree, SemanticTable semanticTable, boolean optimize) {
+        this(tree, semanticTable, optimize, new PhaseTimer());
     }
 
-    private String sequentializeIntermediateCode(String[] lines) {
-        HashMap<String, Integer> labelMap = new HashMap<>();
-        String sequentializedIntermediateCode = "";
-        Pattern pattern = Pattern.compile("^%P?[0-9]+"); //tag regex
-
-        int index = 0;
-        for (String line : lines) {
-            if (line.length() == 0)
-                continue;
-            Matcher matcher = pattern.matcher(line);
-            if (matcher.find()) { //line is a label
-                labelMap.put(matcher.group(), index);
-            } else {
-                index++;
-            }
-        }
+    /**
+     * Translates the tree, timing every pass in timer.
+     */
+    public Translator(AbstractTree tree, SemanticTable semanticTable, boolean optimize, PhaseTimer timer) {
+        this.tree = tree;
+        this.semanticTable = semanticTable;
+        this.timer = timer;
 
-        index = 0;
-        pattern = Pattern.compile("%P?[0-9]+"); //tag regex
-        for (String line : lines) {
-            if (line.length() == 0 || line.charAt(0) == '%') //is label line
-                continue;
-            Matcher matcher = pattern.matcher(line);
-            while (matcher.find()) {
-                String label = matcher.group();
-                String lineIndex = labelMap.get(label).toString();
-                line = line.replace(label, lineIndex);
-            }
-            sequentializedIntermediateCode += index++ + " " + line + "\r\n";
+        if (optimize) {
+            timer.start("fold");
+            constants = new ConstantFolder(tree, semanticTable, timer);
+            deadCode = new DeadCodeEliminator(tree, semanticTable, timer);
         }
+        timer.start("translate");
+        code = new IntermediateCode(2 * tree.size());
+        endLabel = newLabel();
+        new TranslationVisitor().translate(tree.root);
+        code.label(endLabel);
+        code.end();
+        if (optimize) {
+            timer.start("peephole");
+            PeepholeOptimizer optimizer = new PeepholeOptimizer(code);
+            optimizer.optimize();
+            optimizationReport = deadCode.report() + optimizer.report();
+        }
+        timer.start("allocate");
+        new VariableAllocator(code).allocate(); //name variables and reuse temporaries
+        timer.start("number");
+        intermediateCode = code.intermediateCode();
+        finalIntermediateCode = code.numberedCode();
+        timer.stop();
+    }
 
-        return sequentializedIntermediateCode;
+    public IntermediateCode getCode() {
+        return code;
     }
 
-    private String[] splitIntermediateCode() {
-        return intermediateCode.split("\r\n");
+    public String getOptimizationReport() {
+        return optimizationReport;
     }
 
     public String getIntermediateCode() {
@@ -71,258 +75,496 @@ public class Translator {
         return finalIntermediateCode;
     }
 
-    private String translateStatement(AbstractNode abstractNode) {
-        AbstractNodeType nodeType = abstractNode.type;
-        String intermediateCode = "";
-
-        switch (nodeType) {
-            case StrDecl:
-            case NumDecl:
-            case BoolDecl:
-                break;
-            case Halt:
-                intermediateCode = "GOTO " + endLabel + "\r\n";
-                break;
-            case Call:
-                String functionLabel = newFunctionLabel(abstractNode.val);
-                intermediateCode = "GOSUB " + functionLabel + "\r\n";
-                break;
-            case Proc:
-                functionLabel = newFunctionLabel(abstractNode.val);
-                String functionCode = translateStatement(abstractNode.children[0]);
-                intermediateCode = functionLabel + "\r\n" + functionCode + "RETURN" + "\r\n";
-                break;
-            case CondBranch:
-                String label1 = newLabel();
-                String label2 = newLabel();
-                String label3 = newLabel();
-                String code1 = translateBoolean(abstractNode.children[0], label1, label2);
-                String code2 = translateStatement(abstractNode.children[1]);
-                if (abstractNode.children.length > 2) { //there is an else statement
-                    String code3 = translateStatement(abstractNode.children[2]);
-                    intermediateCode = code1 + label1 + "\r\n" + code2 + "GOTO " + label3 + "\r\n" + label2 + "\r\n" + code3 + label3 + "\r\n";
-                } else {
-                    intermediateCode = code1 + label1 + "\r\n" + code2 + label2 + "\r\n";
-                }
-                break;
-            case WhileLoop:
-                label1 = newLabel();
-                label2 = newLabel();
-                label3 = newLabel();
-                code1 = translateBoolean(abstractNode.children[0], label2, label3);
-                code2 = translateStatement(abstractNode.children[1]);
-                intermediateCode = label1 + "\r\n" + code1 + label2 + "\r\n" + code2 + "GOTO " + label1 + "\r\n" + label3 + "\r\n";
-                break;
-            case ForLoop:
-                label1 = newLabel();
-                label2 = newLabel();
-                label3 = newLabel();
-                String code0 = translateStatement(abstractNode.children[0]); //the assignment
-                code1 = translateBoolean(abstractNode.children[1], label2, label3); //the condition
-                code2 = translateStatement(abstractNode.children[3]); //the body
-                String code3 = translateStatement(abstractNode.children[2]); //the increment
-                intermediateCode = code0 + label1 + "\r\n" + code1 + label2 + "\r\n" + code2 + code3 + "GOTO " + label1 + "\r\n" + label3 + "\r\n";
-                break;
-            case Assign:
-                String place;
-                if (semanticTable.table[abstractNode.id].nameType == NameType.S)
-                    place = translateStringVar(abstractNode.children[0].val);
-                else
-                    place = translateNumVar(abstractNode.children[0].val);
-                intermediateCode = translateExpression(abstractNode.children[1], place);
-                break;
-            case Output:
-            case Input:
-                if (semanticTable.table[abstractNode.id].nameType == NameType.S)
-                    place = translateStringVar(abstractNode.children[0].val);
-                else
-                    place = translateNumVar(abstractNode.children[0].val);
-                intermediateCode = translateExpression(abstractNode, place);
-                break;
-            case ProcDefs:
-                String defsLabel = newLabel();
-                intermediateCode = "GOTO " + defsLabel + "\r\n";
-                for (AbstractNode childAbstractNode : abstractNode.children)
-                    intermediateCode += translateStatement(childAbstractNode);
-                intermediateCode += defsLabel + "\r\n";
-                break;
-            default:
-                for (AbstractNode childAbstractNode : abstractNode.children)
-                    intermediateCode += translateStatement(childAbstractNode);
-                break;
+    private static final byte STATEMENT = 0;
+    private static final byte EXPRESSION = 1;
+    private static final byte BOOLEAN = 2;
+
+    /**
+     * Translates the tree into intermediate code with symbolic labels.
+     * Every node is translated as a statement, as an expression into a place or as a boolean that jumps to a true or false label,
+     * labels and places are handed out on the way down and code is emitted in order as the walk passes the points it belongs to.
+     */
+    private class TranslationVisitor extends TreeVisitor {
+        private byte mode[];
+        private int place[];
+        private int labelTrue[];
+        private int labelFalse[];
+        private int label1[];
+        private int label2[];
+        private int label3[];
+        private int place1[];
+        private int place2[];
+
+        TranslationVisitor() {
+            super(Translator.this.tree, timer);
+            int size = tree.size();
+            mode = new byte[size];
+            place = new int[size];
+            labelTrue = new int[size];
+            labelFalse = new int[size];
+            label1 = new int[size];
+            label2 = new int[size];
+            label3 = new int[size];
+            place1 = new int[size];
+            place2 = new int[size];
         }
-        return intermediateCode;
-    }
 
-    private String translateExpression(AbstractNode abstractNode, String place) {
-        AbstractNodeType nodeType = abstractNode.type;
-        String intermediateCode = "";
-
-        switch (nodeType) {
-            case True:
-                intermediateCode = "LET " + place + " = 1";
-                break;
-            case False:
-                intermediateCode = "LET " + place + " = 0";
-                break;
-            case Var:
-                intermediateCode = "LET " + place + " = " +
-                        (semanticTable.table[abstractNode.id].nameType == NameType.S?
-                                translateStringVar(abstractNode.val) : translateNumVar(abstractNode.val));
-                break;
-            case String:
-            case Number:
-                intermediateCode = "LET " + place + " = " + abstractNode.val;
-                break;
-            case Input:
-                intermediateCode = "INPUT " + place;
-                break;
-            case Output:
-                intermediateCode = "PRINT " + place;
-                break;
-            case NotExpr:
-            case AndExpr:
-            case OrExpr:
-            case EqExpr:
-                String label1 = newLabel();
-                String label2 = newLabel();
-                String code1 = translateBoolean(abstractNode, label1, label2);
-                intermediateCode = "LET " + place + " = 0\r\n" + code1 + label1 + " LET " + place + " = 1 " + label2;
-                break;
-            case GreaterExpr:
-            case LessExpr:
-            case AddExpr:
-            case SubExpr:
-            case MultExpr:
-                String place1 = newNumVar();
-                String place2 = newNumVar();
-                code1 = translateExpression(abstractNode.children[0], place1);
-                String code2 = translateExpression(abstractNode.children[1], place2);
-                String op = translateOp(abstractNode);
-                intermediateCode = code1 + code2 + "LET " + place + " = " + place1 + " " + op + " " + place2;
-                break;
+        void translate(int root) {
+            mode[root] = STATEMENT;
+            walk(root);
         }
 
-        return intermediateCode + "\r\n";
-    }
+        @Override
+        protected boolean enter(int abstractNode, int parent) {
+            switch (mode[abstractNode]) {
+                case STATEMENT:
+                    return enterStatement(abstractNode);
+                case EXPRESSION:
+                    return enterExpression(abstractNode);
+                default:
+                    return enterBoolean(abstractNode);
+            }
+        }
 
-    private String translateBoolean(AbstractNode abstractNode, String labelTrue, String labelFalse) {
-        AbstractNodeType nodeType = abstractNode.type;
-        String intermediateCode = "";
-
-        switch (nodeType) {
-            case Var:
-                String place = newNumVar();
-                String code = translateExpression(abstractNode, place);
-                intermediateCode = code + "IF " + place + " THEN GOTO " + labelTrue + "\r\nGOTO " + labelFalse + "\r\n";
-                break;
-            case True:
-                intermediateCode = "GOTO " + labelTrue + "\r\n";
-                break;
-            case False:
-                intermediateCode = "GOTO " + labelFalse + "\r\n";
-                break;
-            case EqExpr:
-            case GreaterExpr:
-            case LessExpr:
-                String place1 = newNumVar();
-                String place2 = newNumVar();
-                String code1 = translateExpression(abstractNode.children[0], place1);
-                String code2 = translateExpression(abstractNode.children[1], place2);
-                String op = translateOp(abstractNode);
-                intermediateCode = code1 + code2 + "IF " + place1 + " " + op + " " + place2 + " THEN GOTO " + labelTrue + "\r\nGOTO " + labelFalse + "\r\n";
-                break;
-            case OrExpr:
-                String arg2 = newLabel();
-                code1 = translateBoolean(abstractNode.children[0], labelTrue, arg2);
-                code2 = translateBoolean(abstractNode.children[1], labelTrue, labelFalse);
-                intermediateCode = code1 + arg2 + "\r\n" + code2;
-                break;
-            case AndExpr:
-                arg2 = newLabel();
-                code1 = translateBoolean(abstractNode.children[0], arg2, labelFalse);
-                code2 = translateBoolean(abstractNode.children[1], labelTrue, labelFalse);
-                intermediateCode = code1 + arg2 + "\r\n" + code2;
-                break;
-            case NotExpr:
-                intermediateCode = translateBoolean(abstractNode.children[0], labelFalse, labelTrue);
-                break;
+        @Override
+        protected int next(int abstractNode, int step) {
+            switch (mode[abstractNode]) {
+                case STATEMENT:
+                    return nextStatement(abstractNode, step);
+                case EXPRESSION:
+                    return nextExpression(abstractNode, step);
+                default:
+                    return nextBoolean(abstractNode, step);
+            }
+        }
+
+        @Override
+        protected void exit(int abstractNode, int parent) {
+            switch (mode[abstractNode]) {
+                case STATEMENT:
+                    exitStatement(abstractNode);
+                    break;
+                case EXPRESSION:
+                    exitExpression(abstractNode);
+                    break;
+                default:
+                    exitBoolean(abstractNode);
+                    break;
+            }
+        }
+
+        private boolean enterStatement(int abstractNode) {
+            if (deadCode != null && deadCode.isDead(abstractNode))
+                return false;
+            switch (tree.type(abstractNode)) {
+                case StrDecl:
+                case NumDecl:
+                case BoolDecl:
+                    return false;
+                case Halt:
+                    code.goTo(endLabel);
+                    return false;
+                case Call:
+                    code.goSub(newFunctionLabel(tree.val(abstractNode)));
+                    return false;
+                case Proc:
+                    code.label(newFunctionLabel(tree.val(abstractNode)));
+                    return true;
+                case CondBranch:
+                    if (!isFolded(tree.child(abstractNode, 0))) //only the branch taken is translated
+                        newLabels(abstractNode);
+                    return true;
+                case ForLoop:
+                    newLabels(abstractNode);
+                    return true;
+                case WhileLoop:
+                    if (neverEntered(abstractNode))
+                        return false;
+                    newLabels(abstractNode);
+                    code.label(label1[abstractNode]);
+                    return true;
+                case Assign:
+                    place[abstractNode] = translateVar(abstractNode, tree.child(abstractNode, 0));
+                    return true;
+                case Output:
+                case Input:
+                    int operand = tree.child(abstractNode, 0);
+                    place[abstractNode] = tree.type(abstractNode) == AbstractNodeType.Output && isFolded(operand)?
+                            foldedPlace(operand) : translateVar(abstractNode, operand);
+                    translateLeaf(abstractNode, place[abstractNode]);
+                    return false;
+                case ProcDefs:
+                    label1[abstractNode] = newLabel();
+                    code.goTo(label1[abstractNode]); //jump over the procedure bodies
+                    return true;
+                default:
+                    return true;
+            }
+        }
+
+        private int nextStatement(int abstractNode, int step) {
+            switch (tree.type(abstractNode)) {
+                case CondBranch:
+                    int guard = tree.child(abstractNode, 0);
+                    if (isFolded(guard)) {
+                        int branch = constants.isTrue(guard)? 1 : 2;
+                        return step == 0 && branch < tree.childCount(abstractNode)? visit(tree.child(abstractNode, branch), STATEMENT, IntermediateCode.NONE) : AbstractTree.NONE;
+                    }
+                    switch (step) {
+                        case 0:
+                            return visitBoolean(tree.child(abstractNode, 0), label1[abstractNode], label2[abstractNode]); //the guard
+                        case 1:
+                            code.label(label1[abstractNode]);
+                            return visit(tree.child(abstractNode, 1), STATEMENT, IntermediateCode.NONE); //the then branch
+                        case 2:
+                            if (tree.childCount(abstractNode) < 3)
+                                return AbstractTree.NONE;
+                            code.goTo(label3[abstractNode]);
+                            code.label(label2[abstractNode]);
+                            return visit(tree.child(abstractNode, 2), STATEMENT, IntermediateCode.NONE); //the else branch
+                        default:
+                            return AbstractTree.NONE;
+                    }
+                case WhileLoop:
+                    switch (step) {
+                        case 0:
+                            return visitBoolean(tree.child(abstractNode, 0), label2[abstractNode], label3[abstractNode]); //the guard
+                        case 1:
+                            code.label(label2[abstractNode]);
+                            return visit(tree.child(abstractNode, 1), STATEMENT, IntermediateCode.NONE); //the body
+                        default:
+                            return AbstractTree.NONE;
+                    }
+                case ForLoop:
+                    switch (step) {
+                        case 0:
+                            return visit(tree.child(abstractNode, 0), STATEMENT, IntermediateCode.NONE); //the assignment
+                        case 1:
+                            code.label(label1[abstractNode]);
+                            return visitBoolean(tree.child(abstractNode, 1), label2[abstractNode], label3[abstractNode]); //the condition
+                        case 2:
+                            code.label(label2[abstractNode]);
+                            return visit(tree.child(abstractNode, 3), STATEMENT, IntermediateCode.NONE); //the body
+                        case 3:
+                            return visit(tree.child(abstractNode, 2), STATEMENT, IntermediateCode.NONE); //the increment
+                        default:
+                            return AbstractTree.NONE;
+                    }
+                case Assign:
+                    return step == 0? visit(tree.child(abstractNode, 1), EXPRESSION, place[abstractNode]) : AbstractTree.NONE;
+            }
+            return step < tree.childCount(abstractNode)? visit(tree.child(abstractNode, step), STATEMENT, IntermediateCode.NONE) : AbstractTree.NONE;
+        }
+
+        private void exitStatement(int abstractNode) {
+            if (deadCode != null && deadCode.isDead(abstractNode))
+                return;
+            switch (tree.type(abstractNode)) {
+                case Proc:
+                    code.ret();
+                    break;
+                case CondBranch:
+                    if (isFolded(tree.child(abstractNode, 0)))
+                        break;
+                    if (tree.childCount(abstractNode) > 2) //there is an else statement
+                        code.label(label3[abstractNode]);
+                    else
+                        code.label(label2[abstractNode]);
+                    break;
+                case WhileLoop:
+                    if (neverEntered(abstractNode))
+                        break;
+                    code.goTo(label1[abstractNode]);
+                    code.label(label3[abstractNode]);
+                    break;
+                case ForLoop:
+                    code.goTo(label1[abstractNode]);
+                    code.label(label3[abstractNode]);
+                    break;
+                case ProcDefs:
+                    code.label(label1[abstractNode]);
+                    break;
+            }
+        }
+
+        private boolean enterExpression(int abstractNode) {
+            if (isFolded(abstractNode))
+                return false;
+            switch (tree.type(abstractNode)) {
+                case NotExpr:
+                case AndExpr:
+                case OrExpr:
+                case EqExpr:
+                    labelTrue[abstractNode] = newLabel();
+                    labelFalse[abstractNode] = newLabel();
+                    code.let(place[abstractNode], code.constant("0"));
+                    return enterBoolean(abstractNode);
+                case GreaterExpr:
+                case LessExpr:
+                case AddExpr:
+                case SubExpr:
+                case MultExpr:
+                    place1[abstractNode] = newNumVar();
+                    place2[abstractNode] = newNumVar();
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        private int nextExpression(int abstractNode, int step) {
+            switch (tree.type(abstractNode)) {
+                case NotExpr:
+                case AndExpr:
+                case OrExpr:
+                case EqExpr:
+                    return nextBoolean(abstractNode, step);
+                case GreaterExpr:
+                case LessExpr:
+                case AddExpr:
+                case SubExpr:
+                case MultExpr:
+                    if (step == 0)
+                        return visit(tree.child(abstractNode, 0), EXPRESSION, place1[abstractNode]);
+                    if (step == 1)
+                        return visit(tree.child(abstractNode, 1), EXPRESSION, place2[abstractNode]);
+            }
+            return AbstractTree.NONE;
+        }
+
+        private void exitExpression(int abstractNode) {
+            int place = this.place[abstractNode];
+            if (isFolded(abstractNode)) {
+                code.let(place, foldedPlace(abstractNode));
+                return;
+            }
+            switch (tree.type(abstractNode)) {
+                case NotExpr:
+                case AndExpr:
+                case OrExpr:
+                case EqExpr:
+                    exitBoolean(abstractNode);
+                    code.label(labelTrue[abstractNode]);
+                    code.let(place, code.constant("1"));
+                    code.label(labelFalse[abstractNode]);
+                    break;
+                case GreaterExpr:
+                case LessExpr:
+                case AddExpr:
+                case SubExpr:
+                case MultExpr:
+                    code.let(place, place1[abstractNode], translateOp(abstractNode), place2[abstractNode]);
+                    break;
+                default:
+                    translateLeaf(abstractNode, place);
+                    break;
+            }
+        }
+
+        private boolean enterBoolean(int abstractNode) {
+            if (isFolded(abstractNode))
+                return false;
+            switch (tree.type(abstractNode)) {
+                case Var:
+                    place1[abstractNode] = newNumVar();
+                    return false;
+                case EqExpr:
+                case GreaterExpr:
+                case LessExpr:
+                    place1[abstractNode] = newNumVar();
+                    place2[abstractNode] = newNumVar();
+                    return true;
+                case OrExpr:
+                case AndExpr:
+                    label1[abstractNode] = newLabel();
+                    return true;
+                case NotExpr:
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        private int nextBoolean(int abstractNode, int step) {
+            int labelTrue = this.labelTrue[abstractNode];
+            int labelFalse = this.labelFalse[abstractNode];
+            switch (tree.type(abstractNode)) {
+                case EqExpr:
+                case GreaterExpr:
+                case LessExpr:
+                    if (step == 0)
+                        return visit(tree.child(abstractNode, 0), EXPRESSION, place1[abstractNode]);
+                    if (step == 1)
+                        return visit(tree.child(abstractNode, 1), EXPRESSION, place2[abstractNode]);
+                    break;
+                case OrExpr:
+                    if (step == 0)
+                        return visitBoolean(tree.child(abstractNode, 0), labelTrue, label1[abstractNode]);
+                    if (step == 1) {
+                        code.label(label1[abstractNode]); //the right operand is only reached when the left one is false
+                        return visitBoolean(tree.child(abstractNode, 1), labelTrue, labelFalse);
+                    }
+                    break;
+                case AndExpr:
+                    if (step == 0)
+                        return visitBoolean(tree.child(abstractNode, 0), label1[abstractNode], labelFalse);
+                    if (step == 1) {
+                        code.label(label1[abstractNode]); //the right operand is only reached when the left one is true
+                        return visitBoolean(tree.child(abstractNode, 1), labelTrue, labelFalse);
+                    }
+                    break;
+                case NotExpr:
+                    if (step == 0)
+                        return visitBoolean(tree.child(abstractNode, 0), labelFalse, labelTrue);
+                    break;
+            }
+            return AbstractTree.NONE;
+        }
+
+        private void exitBoolean(int abstractNode) {
+            int labelTrue = this.labelTrue[abstractNode];
+            int labelFalse = this.labelFalse[abstractNode];
+            if (isFolded(abstractNode)) {
+                code.goTo(constants.isTrue(abstractNode)? labelTrue : labelFalse);
+                return;
+            }
+            switch (tree.type(abstractNode)) {
+                case Var:
+                    int place = place1[abstractNode];
+                    translateLeaf(abstractNode, place);
+                    code.ifGoto(place, labelTrue);
+                    code.goTo(labelFalse);
+                    break;
+                case True:
+                    code.goTo(labelTrue);
+                    break;
+                case False:
+                    code.goTo(labelFalse);
+                    break;
+                case EqExpr:
+                case GreaterExpr:
+                case LessExpr:
+                    code.ifGoto(place1[abstractNode], translateOp(abstractNode), place2[abstractNode], labelTrue);
+                    code.goTo(labelFalse);
+                    break;
+            }
+        }
+
+        /**
+         * Code of the nodes that are translated without visiting children: a single instruction moving a value into place.
+         */
+        private void translateLeaf(int abstractNode, int place) {
+            switch (tree.type(abstractNode)) {
+                case True:
+                    code.let(place, code.constant("1"));
+                    break;
+                case False:
+                    code.let(place, code.constant("0"));
+                    break;
+                case Var:
+                    code.let(place,
+                            (semanticTable.table[abstractNode].nameType == NameType.S?
+                                    translateStringVar(tree.val(abstractNode)) : translateNumVar(tree.val(abstractNode))));
+                    break;
+                case String:
+                case Number:
+                    code.let(place, code.constant(tree.val(abstractNode)));
+                    break;
+                case Input:
+                    code.input(place);
+                    break;
+                case Output:
+                    code.print(place);
+                    break;
+            }
+        }
+
+        /**
+         * Hands a branch or loop the labels its code jumps between.
+         */
+        private void newLabels(int abstractNode) {
+            label1[abstractNode] = newLabel();
+            label2[abstractNode] = newLabel();
+            label3[abstractNode] = newLabel();
         }
-        return intermediateCode;
-    }
 
-    private String newNumVar() {
-        char char1 = (char)(varChars[0] + 'A');
-        char char2 = (char)(varChars[1] + 'A');
-        String varName = String.valueOf(char1) + String.valueOf(char2);
+        /**
+         * Whether the condition of a while loop is folded to false, so the loop is left out.
+         */
+        private boolean neverEntered(int whileLoop) {
+            int guard = tree.child(whileLoop, 0);
+            return isFolded(guard) && !constants.isTrue(guard);
+        }
+
+        private int visit(int abstractNode, byte mode, int place) {
+            this.mode[abstractNode] = mode;
+            this.place[abstractNode] = place;
+            return abstractNode;
+        }
 
-        varChars[1]++;
-        if (varChars[1] >= 26) {
-            varChars[0]++;
-            varChars[1] = 0;
+        private int visitBoolean(int abstractNode, int labelTrue, int labelFalse) {
+            mode[abstractNode] = BOOLEAN;
+            this.labelTrue[abstractNode] = labelTrue;
+            this.labelFalse[abstractNode] = labelFalse;
+            return abstractNode;
         }
-        return varName;
     }
 
-    private String newStringVar() {
-        return newNumVar() + "$";
+    private boolean isFolded(int abstractNode) {
+        return constants != null && constants.isConstant(abstractNode);
+    }
+
+    private int foldedPlace(int abstractNode) {
+        return code.constant(constants.literal(abstractNode));
     }
 
-    private String translateNumVar(String var) {
+    private int translateVar(int statement, int var) {
+        if (semanticTable.table[statement].nameType == NameType.S)
+            return translateStringVar(tree.val(var));
+        else
+            return translateNumVar(tree.val(var));
+    }
+
+    private int newNumVar() {
+        return code.temp("T" + tempCount++); //named by the variable allocator
+    }
+
+    private int translateNumVar(String var) {
         if (variableMap.get(var) == null)
-            variableMap.put(var, newNumVar());
+            variableMap.put(var, code.variable(var));
         return variableMap.get(var);
     }
 
-    private String translateStringVar(String var) {
+    private int translateStringVar(String var) {
         if (variableMap.get(var) == null)
-            variableMap.put(var, newStringVar());
+            variableMap.put(var, code.variable(var + "$"));
         return variableMap.get(var);
     }
 
-    private String newLabel() {
-        return "%" + labelCount++;
+    private int newLabel() {
+        return code.newLabel();
     }
 
-    private String newFunctionLabel(String functionName) {
-        return "%" + functionName;
+    private int newFunctionLabel(String functionName) {
+        return code.functionLabel(functionName);
     }
 
-    private String translateOp(AbstractNode abstractNode) {
-        AbstractNodeType nodeType = abstractNode.type;
-        String binOpName = "";
-        switch (nodeType) {
+    private Operator translateOp(int abstractNode) {
+        switch (tree.type(abstractNode)) {
             case EqExpr:
-                binOpName = "=";
-                break;
+                return Operator.EQ;
             case LessExpr:
-                binOpName = "<";
-                break;
+                return Operator.LT;
             case GreaterExpr:
-                binOpName = ">";
-                break;
-            case NotExpr:
-                binOpName = "NOT";
-                break;
-            case AndExpr:
-                binOpName = "AND";
-                break;
-            case OrExpr:
-                binOpName = "OR";
-                break;
+                return Operator.GT;
             case AddExpr:
-                binOpName = "+";
-                break;
+                return Operator.ADD;
             case SubExpr:
-                binOpName = "-";
-                break;
+                return Operator.SUB;
             case MultExpr:
-                binOpName = "*";
-                break;
-            case Assign:
-                binOpName = "=";
-                break;
+                return Operator.MUL;
+            default:
+                return Operator.NONE;
         }
-        return binOpName;
     }
 }
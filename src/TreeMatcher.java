@@ -0,0 +1,124 @@
+import java.util.Arrays;
+
+/**
+ * Pairs the nodes of an edited abstract tree with the nodes of the tree it was edited from.
+ * Every node has a structural hash over its type, its value and the hashes of its children, taken before the semantic
+ * passes rename the values. Subtrees with equal hashes are paired node for node. Elsewhere nodes of the same type are
+ * paired and so are their children: the statements of a code block and the procedures of a definition list by the
+ * longest equal prefix and suffix and by position in a middle of the same length, the children of other nodes by position.
+ * Node ids are free to change between the trees, a node is paired with at most one node of the other tree.
+ */
+public class TreeMatcher {
+    private final long hashes[];
+    private final long originalHashes[];
+    private final int matches[]; //node of this tree for every node of the original, NONE where there is none
+    private final int originals[]; //the reverse
+
+    /**
+     * Pairs tree with original, hashes come from hash on each tree before it was renamed.
+     */
+    public TreeMatcher(AbstractTree original, long originalHashes[], AbstractTree tree, long hashes[]) {
+        this.hashes = hashes;
+        this.originalHashes = originalHashes;
+        matches = new int[original.size()];
+        originals = new int[tree.size()];
+        Arrays.fill(matches, AbstractTree.NONE);
+        Arrays.fill(originals, AbstractTree.NONE);
+
+        int stack[] = new int[64]; //pairs of original and edited node still to be matched
+        int depth = 0;
+        stack[depth++] = original.root;
+        stack[depth++] = tree.root;
+        while (depth > 0) {
+            int node = stack[--depth];
+            int originalNode = stack[--depth];
+            if (original.type(originalNode) != tree.type(node))
+                continue;
+            pair(originalNode, node);
+            int originalCount = original.childCount(originalNode);
+            int count = tree.childCount(node);
+            if (originalCount == count && originalHashes[originalNode] == hashes[node]) { //the same subtree
+                if (depth + 2 * count > stack.length)
+                    stack = Arrays.copyOf(stack, 2 * (depth + 2 * count));
+                for (int a = 0; a < count; a++) {
+                    stack[depth++] = original.child(originalNode, a);
+                    stack[depth++] = tree.child(node, a);
+                }
+                continue;
+            }
+
+            int prefix = 0;
+            int suffix = 0;
+            int middle = Math.min(originalCount, count); //children paired by position after the prefix
+            switch (tree.type(node)) {
+                case Code:
+                case ProcDefs: //lists, an edit inserts or removes items in the middle
+                    int shorter = Math.min(originalCount, count);
+                    while (prefix < shorter && originalHashes[original.child(originalNode, prefix)] == hashes[tree.child(node, prefix)])
+                        prefix++;
+                    while (suffix < shorter - prefix &&
+                            originalHashes[original.child(originalNode, originalCount - 1 - suffix)] == hashes[tree.child(node, count - 1 - suffix)])
+                        suffix++;
+                    middle = originalCount == count? count - prefix - suffix : 0; //a middle of another length is left unpaired
+                    break;
+            }
+            if (depth + 2 * (prefix + middle + suffix) > stack.length)
+                stack = Arrays.copyOf(stack, 2 * (depth + 2 * (prefix + middle + suffix)));
+            for (int a = 0; a < prefix + middle; a++) {
+                stack[depth++] = original.child(originalNode, a);
+                stack[depth++] = tree.child(node, a);
+            }
+            for (int a = 1; a <= suffix; a++) {
+                stack[depth++] = original.child(originalNode, originalCount - a);
+                stack[depth++] = tree.child(node, count - a);
+            }
+        }
+    }
+
+    /**
+     * Structural hash of every subtree of a tree that was not renamed yet, the walk counted in timer.
+     */
+    public static long[] hash(AbstractTree tree, PhaseTimer timer) {
+        final long hashes[] = new long[tree.size()];
+        new TreeVisitor(tree, timer) {
+            @Override
+            protected void exit(int node, int parent) {
+                long hash = tree.type(node).ordinal() * 0x9E3779B97F4A7C15L + tree.val(node).hashCode();
+                for (int a = 0; a < tree.childCount(node); a++)
+                    hash = (hash ^ hashes[tree.child(node, a)]) * 0x100000001B3L + a;
+                hash ^= hash >>> 29;
+                hashes[node] = hash * 0xBF58476D1CE4E5B9L;
+            }
+        }.walk(tree.root);
+        return hashes;
+    }
+
+    private void pair(int originalNode, int node) {
+        if (matches[originalNode] != AbstractTree.NONE || originals[node] != AbstractTree.NONE)
+            return;
+        matches[originalNode] = node;
+        originals[node] = originalNode;
+    }
+
+    /**
+     * The node paired with a node of the original tree, NONE if it has none.
+     */
+    public int match(int originalNode) {
+        return originalNode < 0 || originalNode >= matches.length? AbstractTree.NONE : matches[originalNode];
+    }
+
+    /**
+     * The node of the original tree paired with node, NONE if it has none.
+     */
+    public int original(int node) {
+        return originals[node];
+    }
+
+    /**
+     * Whether node's subtree is the same as the subtree of the node it is paired with.
+     */
+    public boolean unchanged(int node) {
+        int originalNode = originals[node];
+        return originalNode != AbstractTree.NONE && originalHashes[originalNode] == hashes[node];
+    }
+}
@@ -0,0 +1,91 @@
+import java.util.Arrays;
+
+/**
+ * Depth first walk over an AbstractTree driven by an explicit stack, so the depth of a tree is bounded by heap and not by the thread stack.
+ * Passes override the three hooks:
+ * enter runs before a node's children (pre-order), next picks the node to descend into after a given number of steps
+ * (in order children by default, but a pass may reorder, skip or jump to nodes elsewhere in the tree) and exit runs once a node is done (post-order).
+ * A visitor given a PhaseTimer adds the nodes every walk entered to its visits.
+ */
+public abstract class TreeVisitor {
+    protected final AbstractTree tree;
+    private final PhaseTimer timer; //null when the walks are not counted
+
+    private int nodes[] = new int[64];
+    private int parents[] = new int[64];
+    private int steps[] = new int[64];
+    private int depth = 0;
+    private long visits = 0;
+
+    protected TreeVisitor(AbstractTree tree) {
+        this(tree, null);
+    }
+
+    protected TreeVisitor(AbstractTree tree, PhaseTimer timer) {
+        this.tree = tree;
+        this.timer = timer;
+    }
+
+    /**
+     * Called when node is reached from parent, return false to skip its children.
+     */
+    protected boolean enter(int node, int parent) {
+        return true;
+    }
+
+    /**
+     * Returns the node to visit after step nodes have been visited below node, or AbstractTree.NONE when node is done.
+     */
+    protected int next(int node, int step) {
+        return step < tree.childCount(node)? tree.child(node, step) : AbstractTree.NONE;
+    }
+
+    /**
+     * Called once node and everything visited below it is done.
+     */
+    protected void exit(int node, int parent) {
+    }
+
+    /**
+     * Number of nodes on the walk stack, the node being entered or exited is included.
+     */
+    protected int depth() {
+        return depth;
+    }
+
+    public void walk(int root) {
+        depth = 0;
+        visits = 0;
+        visit(root, AbstractTree.NONE);
+        while (depth > 0) {
+            int top = depth - 1;
+            int node = nodes[top];
+            int child = next(node, steps[top]++);
+            if (child == AbstractTree.NONE) {
+                exit(node, parents[top]);
+                depth--;
+            } else {
+                visit(child, node);
+            }
+        }
+        if (timer != null)
+            timer.addVisits(visits);
+    }
+
+    private void visit(int node, int parent) {
+        if (depth == nodes.length) {
+            nodes = Arrays.copyOf(nodes, depth * 2);
+            parents = Arrays.copyOf(parents, depth * 2);
+            steps = Arrays.copyOf(steps, depth * 2);
+        }
+        nodes[depth] = node;
+        parents[depth] = parent;
+        steps[depth] = 0;
+        depth++;
+        visits++;
+        if (!enter(node, parent)) {
+            exit(node, parent);
+            depth--;
+        }
+    }
+}
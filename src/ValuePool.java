@@ -0,0 +1,75 @@
+import java.util.Arrays;
+
+/**
+ * Interns node values to dense int ids.
+ * Values can be interned straight from a region of a CharSequence, the String is only created the first time a value is seen.
+ */
+public class ValuePool {
+    private String values[] = new String[64];
+    private int hashes[] = new int[64];
+    private int slots[] = new int[128]; //open addressing table of value id + 1, 0 is empty
+    private int count = 0;
+
+    public int intern(String value) {
+        return intern(value, 0, value.length());
+    }
+
+    public int intern(CharSequence input, int start, int end) {
+        int hash = 0;
+        for (int a = start; a < end; a++)
+            hash = 31 * hash + input.charAt(a);
+
+        int mask = slots.length - 1;
+        int slot = mix(hash) & mask;
+        while (slots[slot] != 0) {
+            int id = slots[slot] - 1;
+            if (hashes[id] == hash && equals(values[id], input, start, end))
+                return id;
+            slot = (slot + 1) & mask;
+        }
+
+        if (count == values.length) {
+            values = Arrays.copyOf(values, count * 2);
+            hashes = Arrays.copyOf(hashes, count * 2);
+        }
+        int id = count++;
+        values[id] = input.subSequence(start, end).toString();
+        hashes[id] = hash;
+        slots[slot] = id + 1;
+        if (count * 2 > slots.length)
+            rehash();
+        return id;
+    }
+
+    public String get(int id) {
+        return values[id];
+    }
+
+    public int size() {
+        return count;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int id = 0; id < count; id++) {
+            int slot = mix(hashes[id]) & mask;
+            while (slots[slot] != 0)
+                slot = (slot + 1) & mask;
+            slots[slot] = id + 1;
+        }
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean equals(String value, CharSequence input, int start, int end) {
+        if (value.length() != end - start)
+            return false;
+        for (int a = 0; a < value.length(); a++)
+            if (value.charAt(a) != input.charAt(start + a))
+                return false;
+        return true;
+    }
+}
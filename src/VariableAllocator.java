@@ -0,0 +1,318 @@
+import java.util.*;
+
+/**
+ * Gives the operands of intermediate code their BASIC names.
+ * Temporaries whose live ranges do not overlap share a name, live ranges are found by walking back from every use
+ * to the definitions reaching it over the control flow graph, a GOSUB flowing into the procedure and every RETURN
+ * flowing back to every call site. Names are handed out shortest first to the most used variables,
+ * one letter names, then a letter followed by letters or digits, widening as far as the program needs.
+ */
+public class VariableAllocator {
+    private static final String RESERVED[] = {"AS", "FN", "GO", "IF", "ON", "OR", "TO",
+            "ABS", "AND", "ASC", "ATN", "CHR", "COS", "DEF", "DIM", "END", "EXP", "FOR", "FRE", "GET", "INT",
+            "LEN", "LET", "LOG", "MID", "NEW", "NOT", "POS", "REM", "RND", "RUN", "SGN", "SIN", "SPC", "SQR",
+            "STR", "TAB", "TAN", "USR", "VAL", "XOR"};
+
+    private final IntermediateCode code;
+    private final int size;
+    private int successorStarts[]; //successors of instruction a are successors[successorStarts[a]..successorStarts[a+1]]
+    private int successors[];
+    private int predecessorStarts[];
+    private int predecessors[];
+    private int temporaryCount = 0;
+    private int nameCount = 0;
+
+    public VariableAllocator(IntermediateCode code) {
+        this.code = code;
+        this.size = code.size();
+    }
+
+    /**
+     * Renames the operands of the code and returns the number of distinct names used.
+     */
+    public int allocate() {
+        buildFlowGraph();
+        int slots[] = allocateTemporaries();
+        assignNames(slots);
+        return nameCount;
+    }
+
+    /**
+     * Number of BASIC variables the temporaries were packed into, valid after allocate.
+     */
+    public int temporaryCount() {
+        return temporaryCount;
+    }
+
+    /**
+     * Builds the successor and predecessor lists of every instruction.
+     * Returns pass through one extra node at index size, so n calls and m returns need n + m edges instead of n * m.
+     */
+    private void buildFlowGraph() {
+        int labelInstructions[] = new int[code.labelCount()];
+        Arrays.fill(labelInstructions, IntermediateCode.NONE);
+        for (int a = 0; a < size; a++)
+            if (code.opcode(a) == Opcode.LABEL)
+                labelInstructions[code.target(a)] = a;
+
+        int returnHub = size;
+        successorStarts = new int[size + 2];
+        int edges[] = new int[2 * size + 2];
+        int edgeCount = 0;
+        for (int a = 0; a < size; a++) {
+            successorStarts[a] = edgeCount;
+            if (edgeCount + 2 > edges.length)
+                edges = Arrays.copyOf(edges, edges.length * 2);
+            int target = code.target(a) == IntermediateCode.NONE? IntermediateCode.NONE : labelInstructions[code.target(a)];
+            switch (code.opcode(a)) {
+                case GOTO:
+                    if (target != IntermediateCode.NONE)
+                        edges[edgeCount++] = target;
+                    break;
+                case IF:
+                    if (target != IntermediateCode.NONE)
+                        edges[edgeCount++] = target;
+                    if (a + 1 < size)
+                        edges[edgeCount++] = a + 1;
+                    break;
+                case GOSUB:
+                    if (target != IntermediateCode.NONE) //the instruction after the call is reached through a return
+                        edges[edgeCount++] = target;
+                    else if (a + 1 < size)
+                        edges[edgeCount++] = a + 1;
+                    break;
+                case RETURN:
+                    edges[edgeCount++] = returnHub;
+                    break;
+                case END:
+                    break;
+                default:
+                    if (a + 1 < size)
+                        edges[edgeCount++] = a + 1;
+                    break;
+            }
+        }
+        successorStarts[size] = edgeCount;
+        for (int a = 0; a < size; a++) {
+            if (code.opcode(a) == Opcode.GOSUB && code.target(a) != IntermediateCode.NONE
+                    && labelInstructions[code.target(a)] != IntermediateCode.NONE && a + 1 < size) {
+                if (edgeCount == edges.length)
+                    edges = Arrays.copyOf(edges, edges.length * 2);
+                edges[edgeCount++] = a + 1;
+            }
+        }
+        successorStarts[size + 1] = edgeCount;
+        successors = edges;
+
+        predecessorStarts = new int[size + 2];
+        for (int a = 0; a < edgeCount; a++)
+            predecessorStarts[successors[a] + 1]++;
+        for (int a = 0; a <= size; a++)
+            predecessorStarts[a + 1] += predecessorStarts[a];
+        predecessors = new int[edgeCount];
+        int fill[] = Arrays.copyOf(predecessorStarts, size + 1);
+        for (int a = 0; a <= size; a++)
+            for (int b = successorStarts[a]; b < successorStarts[a + 1]; b++)
+                predecessors[fill[successors[b]]++] = a;
+    }
+
+    /**
+     * Packs the temporaries into as few slots as a linear scan over their live intervals allows.
+     * The interval of a temporary spans every instruction it is live at or defined by, so temporaries with disjoint
+     * intervals never hold a value at the same time. Returns the slot of every temporary operand, NONE for other operands.
+     */
+    private int[] allocateTemporaries() {
+        int operandCount = code.operandCount();
+        final int starts[] = new int[operandCount];
+        final int ends[] = new int[operandCount];
+        Arrays.fill(starts, Integer.MAX_VALUE);
+        Arrays.fill(ends, -1);
+
+        int uses[][] = new int[operandCount][];
+        int useCounts[] = new int[operandCount];
+        for (int a = 0; a < size; a++) {
+            int result = code.result(a);
+            if (result != IntermediateCode.NONE && code.operandKind(result) == IntermediateCode.TEMP) {
+                starts[result] = Math.min(starts[result], a);
+                ends[result] = Math.max(ends[result], a);
+            }
+            addUse(uses, useCounts, code.left(a), a);
+            addUse(uses, useCounts, code.right(a), a);
+        }
+
+        int visited[] = new int[size + 1]; //operand + 1 of the last temporary found live at the instruction
+        int worklist[] = new int[size + 1];
+        for (int operand = 0; operand < operandCount; operand++) {
+            if (useCounts[operand] == 0)
+                continue;
+            int top = 0;
+            for (int a = 0; a < useCounts[operand]; a++) {
+                int use = uses[operand][a];
+                if (visited[use] != operand + 1) {
+                    visited[use] = operand + 1;
+                    worklist[top++] = use;
+                }
+            }
+            while (top > 0) {
+                int instruction = worklist[--top];
+                if (instruction < size) {
+                    starts[operand] = Math.min(starts[operand], instruction);
+                    ends[operand] = Math.max(ends[operand], instruction);
+                }
+                for (int a = predecessorStarts[instruction]; a < predecessorStarts[instruction + 1]; a++) {
+                    int predecessor = predecessors[a];
+                    if (visited[predecessor] == operand + 1)
+                        continue;
+                    visited[predecessor] = operand + 1;
+                    if (predecessor < size && code.result(predecessor) == operand) { //the definition reaching the use
+                        starts[operand] = Math.min(starts[operand], predecessor);
+                        ends[operand] = Math.max(ends[operand], predecessor);
+                    } else {
+                        worklist[top++] = predecessor;
+                    }
+                }
+            }
+        }
+
+        Integer temporaries[] = new Integer[operandCount];
+        int count = 0;
+        for (int operand = 0; operand < operandCount; operand++)
+            if (code.operandKind(operand) == IntermediateCode.TEMP && ends[operand] >= 0)
+                temporaries[count++] = operand;
+        Arrays.sort(temporaries, 0, count, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return starts[a] != starts[b]? Integer.compare(starts[a], starts[b]) : Integer.compare(a, b);
+            }
+        });
+
+        int slots[] = new int[operandCount];
+        Arrays.fill(slots, IntermediateCode.NONE);
+        PriorityQueue<Integer> active = new PriorityQueue<>(16, new Comparator<Integer>() { //ordered by the end of their interval
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Integer.compare(ends[a], ends[b]);
+            }
+        });
+        ArrayDeque<Integer> freeSlots = new ArrayDeque<>();
+        for (int a = 0; a < count; a++) {
+            int temporary = temporaries[a];
+            while (!active.isEmpty() && ends[active.peek()] < starts[temporary])
+                freeSlots.push(slots[active.poll()]);
+            slots[temporary] = freeSlots.isEmpty()? temporaryCount++ : freeSlots.pop();
+            active.add(temporary);
+        }
+        return slots;
+    }
+
+    private void addUse(int uses[][], int useCounts[], int operand, int instruction) {
+        if (operand == IntermediateCode.NONE || code.operandKind(operand) != IntermediateCode.TEMP)
+            return;
+        if (uses[operand] == null)
+            uses[operand] = new int[2];
+        else if (useCounts[operand] == uses[operand].length)
+            uses[operand] = Arrays.copyOf(uses[operand], useCounts[operand] * 2);
+        uses[operand][useCounts[operand]++] = instruction;
+    }
+
+    /**
+     * Names every program variable and temporary slot, the most referenced first.
+     * Numbers and strings have their own names, A and A$ are different BASIC variables.
+     */
+    private void assignNames(int slots[]) {
+        int operandCount = code.operandCount();
+        int groups[] = new int[operandCount]; //variables are their own group, temporaries are grouped by slot
+        int groupCount = 0;
+        int slotGroups[] = new int[temporaryCount];
+        Arrays.fill(slotGroups, IntermediateCode.NONE);
+        for (int operand = 0; operand < operandCount; operand++) {
+            switch (code.operandKind(operand)) {
+                case IntermediateCode.VARIABLE:
+                    groups[operand] = groupCount++;
+                    break;
+                case IntermediateCode.TEMP:
+                    if (slots[operand] == IntermediateCode.NONE) { //never defined nor used
+                        groups[operand] = IntermediateCode.NONE;
+                    } else {
+                        if (slotGroups[slots[operand]] == IntermediateCode.NONE)
+                            slotGroups[slots[operand]] = groupCount++;
+                        groups[operand] = slotGroups[slots[operand]];
+                    }
+                    break;
+                default:
+                    groups[operand] = IntermediateCode.NONE;
+                    break;
+            }
+        }
+
+        final int references[] = new int[groupCount];
+        boolean strings[] = new boolean[groupCount];
+        for (int operand = 0; operand < operandCount; operand++)
+            if (groups[operand] != IntermediateCode.NONE && code.operandName(operand).endsWith("$"))
+                strings[groups[operand]] = true;
+        for (int a = 0; a < size; a++) {
+            countReference(groups, references, code.result(a));
+            countReference(groups, references, code.left(a));
+            countReference(groups, references, code.right(a));
+        }
+
+        Integer order[] = new Integer[groupCount];
+        for (int a = 0; a < groupCount; a++)
+            order[a] = a;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return references[a] != references[b]? Integer.compare(references[b], references[a]) : Integer.compare(a, b);
+            }
+        });
+        String names[] = new String[groupCount];
+        NameSequence numberNames = new NameSequence();
+        NameSequence stringNames = new NameSequence();
+        for (int group : order)
+            names[group] = strings[group]? stringNames.next() + "$" : numberNames.next();
+        nameCount = Math.max(numberNames.count, stringNames.count);
+
+        for (int operand = 0; operand < operandCount; operand++)
+            if (groups[operand] != IntermediateCode.NONE)
+                code.setOperandName(operand, names[groups[operand]]);
+    }
+
+    private void countReference(int groups[], int references[], int operand) {
+        if (operand != IntermediateCode.NONE && groups[operand] != IntermediateCode.NONE)
+            references[groups[operand]]++;
+    }
+
+    /**
+     * BASIC variable names shortest first: A to Z, then a letter followed by letters and digits, skipping keywords.
+     */
+    private static class NameSequence {
+        private static final String CHARACTERS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+        private static final Set<String> RESERVED_NAMES = new HashSet<>(Arrays.asList(RESERVED));
+
+        private int digits[] = new int[]{0}; //digits[0] indexes the letters, the others all characters
+        private int count = 0;
+
+        String next() {
+            String name;
+            do {
+                StringBuilder builder = new StringBuilder(digits.length);
+                for (int digit : digits)
+                    builder.append(CHARACTERS.charAt(digit));
+                name = builder.toString();
+                advance();
+            } while (RESERVED_NAMES.contains(name));
+            count++;
+            return name;
+        }
+
+        private void advance() {
+            for (int a = digits.length - 1; a >= 0; a--) {
+                int radix = a == 0? 26 : CHARACTERS.length();
+                if (++digits[a] < radix)
+                    return;
+                digits[a] = 0;
+            }
+            digits = new int[digits.length + 1]; //every name of this length is used, widen
+        }
+    }
+}